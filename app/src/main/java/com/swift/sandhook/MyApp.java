@@ -38,8 +38,6 @@ public class MyApp extends Application {
         }
 
         SandHook.disableVMInline();
-        SandHook.tryDisableProfile(getPackageName());
-        SandHook.disableDex2oatInline(false);
 
         if (SandHookConfig.SDK_INT >= Build.VERSION_CODES.P) {
             SandHook.passApiCheck();
@@ -64,6 +62,7 @@ public class MyApp extends Application {
         XposedCompat.context = this;
         XposedCompat.classLoader = getClassLoader();
         XposedCompat.isFirstApplication= true;
+        XposedCompat.precompileStubs(2);
 
         XposedHelpers.findAndHookMethod(Activity.class, "onResume", new XC_MethodHook() {
             @Override
@@ -119,6 +118,14 @@ public class MyApp extends Application {
                 super.afterHookedMethod(param);
             }
         });
+
+        //after hooks installed
+        SandHook.tryFilterProfile(getPackageName(), getApplicationInfo().sourceDir);
+        SandHook.deoptimizeCallers(getClassLoader(), getApplicationInfo().sourceDir);
+        //framework callers are not scanned
+        if (SandHook.hasBootClassHooks()) {
+            SandHook.disableDex2oatInline(false);
+        }
     }
 
     public static int getPreviewSDKInt() {
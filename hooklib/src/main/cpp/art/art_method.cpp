@@ -17,6 +17,8 @@ using namespace SandHook;
 // Intrinsics: These bits are part of the intrinsic ordinal.
 static constexpr uint32_t kAccFastInterpreterToInterpreterInvoke = 0x40000000;  // method.
 
+ArtMethodLayout ArtMethod::layout = {};
+
 void ArtMethod::tryDisableInline() {
     if (SDK_INT < ANDROID_O)
         return;
@@ -52,6 +54,57 @@ void ArtMethod::disableCompilable() {
     setAccessFlags(accessFlag);
 }
 
+void ArtMethod::enableCompilable() {
+    if (SDK_INT < ANDROID_N)
+        return;
+    uint32_t accessFlag = getAccessFlags();
+    if (SDK_INT >= ANDROID_O2) {
+        accessFlag &= ~ 0x02000000;
+        accessFlag &= ~ 0x00800000;
+    } else {
+        accessFlag &= ~ 0x01000000;
+    }
+    setAccessFlags(accessFlag);
+}
+
+void ArtMethod::restoreHookFlags(uint32_t originFlags) {
+    //native of O debug, compilable, fast interpreter of Q
+    uint32_t mask = 0x0100;
+    if (SDK_INT >= ANDROID_O2) {
+        mask |= 0x02000000;
+        mask |= 0x00800000;
+    } else if (SDK_INT >= ANDROID_N) {
+        mask |= 0x01000000;
+    }
+    if (SDK_INT >= ANDROID_Q) {
+        mask |= kAccFastInterpreterToInterpreterInvoke;
+    }
+    setAccessFlags((getAccessFlags() & ~mask) | (originFlags & mask));
+}
+
+void* ArtMethod::getStableEntry(void *code) {
+    if (code == CastArtMethod::quickToInterpreterBridge
+        || code == CastArtMethod::genericJniStub
+        || code == CastArtMethod::staticResolveStub)
+        return code;
+    if (isNative()) {
+        return CastArtMethod::canGetJniBridge ? CastArtMethod::genericJniStub : code;
+    } else {
+        return CastArtMethod::canGetInterpreterBridge ? CastArtMethod::quickToInterpreterBridge : code;
+    }
+}
+
+bool ArtMethod::isCompilable() {
+    if (SDK_INT < ANDROID_N)
+        return false;
+    uint32_t accessFlag = getAccessFlags();
+    if (SDK_INT >= ANDROID_O2) {
+        return (accessFlag & 0x02000000) == 0;
+    } else {
+        return (accessFlag & 0x01000000) == 0;
+    }
+}
+
 bool ArtMethod::isAbstract() {
     uint32_t accessFlags = getAccessFlags();
     return ((accessFlags & 0x0400) != 0);
@@ -68,8 +121,9 @@ bool ArtMethod::isStatic() {
 }
 
 bool ArtMethod::isCompiled() {
-    return getQuickCodeEntry() != CastArtMethod::quickToInterpreterBridge &&
-           getQuickCodeEntry() != CastArtMethod::genericJniStub;
+    void* entry = getQuickCodeEntry();
+    return entry != CastArtMethod::quickToInterpreterBridge &&
+           entry != CastArtMethod::genericJniStub;
 }
 
 bool ArtMethod::isThumbCode() {
@@ -81,7 +135,7 @@ bool ArtMethod::isThumbCode() {
 }
 
 void ArtMethod::setAccessFlags(uint32_t flags) {
-    CastArtMethod::accessFlag->set(this, flags);
+    setField(layout.accessFlags, flags);
 }
 
 void ArtMethod::setPrivate() {
@@ -105,42 +159,6 @@ void ArtMethod::setNative() {
     setAccessFlags(accessFlag);
 }
 
-uint32_t ArtMethod::getAccessFlags() {
-    return CastArtMethod::accessFlag->get(this);
-}
-
-uint32_t ArtMethod::getDexMethodIndex() {
-    return CastArtMethod::dexMethodIndex->get(this);
-}
-
-void* ArtMethod::getQuickCodeEntry() {
-    return CastArtMethod::entryPointQuickCompiled->get(this);
-}
-
-void* ArtMethod::getInterpreterCodeEntry() {
-    return CastArtMethod::entryPointFromInterpreter->get(this);
-}
-
-GCRoot ArtMethod::getDeclaringClass() {
-    return CastArtMethod::declaringClass->get(this);
-}
-
-uint16_t ArtMethod::getHotnessCount() {
-    return CastArtMethod::hotnessCount->get(this);
-}
-
-void ArtMethod::setQuickCodeEntry(void *entry) {
-    CastArtMethod::entryPointQuickCompiled->set(this, entry);
-}
-
-void ArtMethod::setJniCodeEntry(void *entry) {
-    CastArtMethod::entryPointFromJNI->set(this, entry);
-}
-
-void ArtMethod::setInterpreterCodeEntry(void *entry) {
-    CastArtMethod::entryPointFromInterpreter->set(this, entry);
-}
-
 void ArtMethod::setDexCacheResolveList(void *list) {
     CastArtMethod::dexCacheResolvedMethods->set(this, list);
 }
@@ -149,24 +167,16 @@ void ArtMethod::setDexCacheResolveItem(uint32_t index, void* item) {
     CastArtMethod::dexCacheResolvedMethods->setElement(this, index, item);
 }
 
-void ArtMethod::setDeclaringClass(GCRoot classPtr) {
-    CastArtMethod::declaringClass->set(this, classPtr);
-}
-
-void ArtMethod::setHotnessCount(uint16_t count) {
-    CastArtMethod::hotnessCount->set(this, count);
-}
-
 bool ArtMethod::compile(JNIEnv* env) {
     if (isCompiled())
         return true;
     //some unknown error when trigger jit for jni method manually
     if (isNative())
         return false;
-    Size threadId = getAddressFromJavaByCallMethod(env, "com/swift/sandhook/SandHook", "getThreadId");
-    if (threadId == 0)
+    void* thread = getCurrentThread();
+    if (thread == nullptr)
         return false;
-    return compileMethod(this, reinterpret_cast<void *>(threadId)) && isCompiled();
+    return compileMethod(this, thread) && isCompiled();
 }
 
 bool ArtMethod::deCompile() {
@@ -192,6 +202,3 @@ void ArtMethod::backup(ArtMethod *backup) {
     memcpy(backup, this, size());
 }
 
-Size ArtMethod::size() {
-    return CastArtMethod::size;
-}
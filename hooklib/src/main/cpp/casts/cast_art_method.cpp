@@ -266,6 +266,17 @@ namespace SandHook {
                                                                                     "neverCallStatic"));
         staticResolveStub = entryPointQuickCompiled->get(neverCallStatic);
 
+        //flatten offsets for hot accessors of ArtMethod
+        art::mirror::ArtMethodLayout &layout = art::mirror::ArtMethod::layout;
+        layout.size = size;
+        layout.accessFlags = accessFlag->getOffset();
+        layout.dexMethodIndex = dexMethodIndex->getOffset();
+        layout.declaringClass = declaringClass->getOffset();
+        layout.hotnessCount = hotnessCount->getOffset();
+        layout.entryPointFromInterpreter = entryPointFromInterpreter->getOffset();
+        layout.entryPointQuickCompiled = entryPointQuickCompiled->getOffset();
+        layout.entryPointFromJNI = entryPointFromJNI->getOffset();
+
     }
 
     void CastArtMethod::copy(art::mirror::ArtMethod *from, art::mirror::ArtMethod *to) {
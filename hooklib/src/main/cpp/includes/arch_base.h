@@ -26,6 +26,8 @@ x: \
 #define INLINE_HOOK_TRAMPOLINE inline_hook_trampoline
 #define DIRECT_JUMP_TRAMPOLINE direct_jump_trampoline
 #define CALL_ORIGIN_TRAMPOLINE call_origin_trampoline
+#define COUNTING_HOOK_TRAMPOLINE counting_hook_trampoline
+#define NATIVE_CALLBACK_TRAMPOLINE native_callback_trampoline
 
 #define INLINE_HOOK_TRAMPOLINE_T inline_hook_trampoline_t
 #define DIRECT_JUMP_TRAMPOLINE_T direct_jump_trampoline_t
@@ -20,6 +20,7 @@
 #define ART_H
 
 #include <jni.h>
+#include <string.h>
 #include "arch.h"
 
 //7.0 - 10.0
@@ -38,45 +39,123 @@ class ArtField {
 public:
 };
 
+//resolved offsets of ArtMethod fields, filled by CastArtMethod::init
+//offset > size means field not exist in this version
+struct ArtMethodLayout {
+    Size size;
+    Size accessFlags;
+    Size dexMethodIndex;
+    Size declaringClass;
+    Size hotnessCount;
+    Size entryPointFromInterpreter;
+    Size entryPointQuickCompiled;
+    Size entryPointFromJNI;
+};
+
 class ArtMethod {
 public:
 
+    static ArtMethodLayout layout;
+
     bool isAbstract();
     bool isNative();
     bool isStatic();
     bool isCompiled();
     bool isThumbCode();
+    bool isCompilable();
 
     void setAccessFlags(uint32_t flags);
     void disableCompilable();
+    void enableCompilable();
     void tryDisableInline();
     void disableInterpreterForO();
     void disableFastInterpreterForQ();
     void setPrivate();
     void setStatic();
     void setNative();
-
-    void setQuickCodeEntry(void* entry);
-    void setJniCodeEntry(void* entry);
-    void setInterpreterCodeEntry(void* entry);
+    //put back flags changed when hook to the value before hook
+    void restoreHookFlags(uint32_t originFlags);
+    //art stubs are never freed, compiled code may be collected by jit once entry moved away from it
+    void* getStableEntry(void* code);
+
+    void setQuickCodeEntry(void* entry) {
+        setField(layout.entryPointQuickCompiled, entry);
+    }
+    //release store, everything written before is visible to threads see the new entry
+    void publishQuickCodeEntry(void* entry) {
+        if (layout.entryPointQuickCompiled > layout.size)
+            return;
+        __atomic_store_n(reinterpret_cast<void**>(reinterpret_cast<Size>(this) + layout.entryPointQuickCompiled),
+                         entry, __ATOMIC_RELEASE);
+    }
+    void setJniCodeEntry(void* entry) {
+        setField(layout.entryPointFromJNI, entry);
+    }
+    void setInterpreterCodeEntry(void* entry) {
+        setField(layout.entryPointFromInterpreter, entry);
+    }
     void setDexCacheResolveList(void* list);
     void setDexCacheResolveItem(uint32_t index, void* item);
-    void setDeclaringClass(GCRoot classPtr);
-    void setHotnessCount(uint16_t count);
-
-    void* getQuickCodeEntry();
-    void* getInterpreterCodeEntry();
-    uint32_t getAccessFlags();
-    uint32_t getDexMethodIndex();
-    GCRoot getDeclaringClass();
-    uint16_t getHotnessCount();
+    void setDeclaringClass(GCRoot classPtr) {
+        setField(layout.declaringClass, classPtr);
+    }
+    void setHotnessCount(uint16_t count) {
+        setField(layout.hotnessCount, count);
+    }
+
+    void* getQuickCodeEntry() {
+        return getField<void*>(layout.entryPointQuickCompiled);
+    }
+    void* getJniCodeEntry() {
+        return getField<void*>(layout.entryPointFromJNI);
+    }
+    //swap jni entry if not changed by others
+    bool casJniCodeEntry(void* expected, void* entry) {
+        if (layout.entryPointFromJNI > layout.size)
+            return false;
+        return __atomic_compare_exchange_n(reinterpret_cast<void**>(reinterpret_cast<Size>(this) + layout.entryPointFromJNI),
+                                           &expected, entry, false, __ATOMIC_RELEASE, __ATOMIC_RELAXED);
+    }
+    void* getInterpreterCodeEntry() {
+        return getField<void*>(layout.entryPointFromInterpreter);
+    }
+    uint32_t getAccessFlags() {
+        return getField<uint32_t>(layout.accessFlags);
+    }
+    uint32_t getDexMethodIndex() {
+        return getField<uint32_t>(layout.dexMethodIndex);
+    }
+    GCRoot getDeclaringClass() {
+        return getField<GCRoot>(layout.declaringClass);
+    }
+    uint16_t getHotnessCount() {
+        return getField<uint16_t>(layout.hotnessCount);
+    }
 
     bool compile(JNIEnv* env);
     bool deCompile();
     void flushCache();
     void backup(ArtMethod* backup);
 
-    static Size size();
+    static Size size() {
+        return layout.size;
+    }
+
+private:
+
+    template <typename T>
+    T getField(Size offset) {
+        if (offset > layout.size)
+            return 0;
+        return *reinterpret_cast<T*>(reinterpret_cast<Size>(this) + offset);
+    }
+
+    template <typename T>
+    void setField(Size offset, T value) {
+        if (offset > layout.size)
+            return;
+        memcpy(reinterpret_cast<void*>(reinterpret_cast<Size>(this) + offset), &value, sizeof(T));
+    }
 
 };
 
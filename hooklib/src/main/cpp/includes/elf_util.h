@@ -14,6 +14,8 @@ typedef Elf64_Dyn Elf_Dyn;
 typedef Elf64_Rela Elf_Rela;
 typedef Elf64_Sym Elf_Sym;
 typedef Elf64_Off Elf_Off;
+typedef Elf64_Phdr Elf_Phdr;
+typedef Elf64_Word Elf_Word;
 
 #define ELF_R_SYM(i) ELF64_R_SYM(i)
 #else
@@ -24,6 +26,8 @@ typedef Elf32_Dyn Elf_Dyn;
 typedef Elf32_Rel Elf_Rela;
 typedef Elf32_Sym Elf_Sym;
 typedef Elf32_Off Elf_Off;
+typedef Elf32_Phdr Elf_Phdr;
+typedef Elf32_Word Elf_Word;
 
 #define ELF_R_SYM(i) ELF32_R_SYM(i)
 #endif
@@ -67,6 +71,30 @@ namespace SandHook {
         Elf_Off dynsym_size = 0;
     };
 
+    //exported symbols of a loaded library, read from its dynamic section in memory
+    //so libraries of other namespaces or mapped from apk directly (extractNativeLibs=false) work too
+    class LoadedElf {
+    public:
+
+        LoadedElf(Elf_Addr bias, const Elf_Phdr* phdr, int phnum);
+
+        void* findSymbol(const char* name) const;
+
+    private:
+        void* findGnuHash(const char* name) const;
+        void* findSysvHash(const char* name) const;
+        void* symbolAddress(const Elf_Sym* sym) const;
+
+        Elf_Addr bias = 0;
+        const Elf_Sym* symtab = nullptr;
+        const char* strtab = nullptr;
+        const Elf_Word* gnuHash = nullptr;
+        const Elf_Word* sysvHash = nullptr;
+    };
+
+    //search all loaded libraries, parsed libraries are cached
+    void* findLoadedSymbol(const char* name);
+
 }
 
 #endif //SANDHOOK_ELF_UTIL_H
@@ -33,6 +33,7 @@ extern "C" {
 
     bool canGetObject();
     jobject getJavaObject(JNIEnv* env, void* thread, void* address);
+    int getJavaObjects(JNIEnv* env, void* thread, Size* addresses, jobject* objects, int count);
     void *getCurrentThread();
 
     art::jit::JitCompiler* getGlobalJitCompiler();
@@ -43,14 +44,35 @@ extern "C" {
 
     bool disableJitInline(art::CompilerOptions* compilerOptions);
 
+    //jni entry of native method not registered yet
+    bool isJniDlsymLookupStub(void* entry);
+
+    //jit inliner rejects hooked callees only
+    bool hookJitInliner();
+    bool isJitInlinerHooked();
+
     void* getInterpreterBridge(bool isNative);
 
     bool replaceUpdateCompilerOptionsQ();
 
     bool forceProcessProfiles();
+    //deferred, run once after no more request in a quiet period
+    //ignored if profile saver not started
+    void requestProcessProfiles();
+    //process pending request now, return false if nothing pending
+    bool flushProfiles();
 
     bool hookClassInit(void(*callback)(void*));
 
+    //callback before new code of hooked method published, return false to skip update
+    bool hookMethodsCodeUpdate(bool(*callback)(ArtMethod*, const void*));
+
+    //relocate pc related insts by native hook lib
+    bool canRelocateCode();
+    void* relocateCode(void* origin, Size len);
+    //give back relocated code of a failed hook
+    void freeRelocatedCode(void* code, Size len);
+
     JNIEnv *attachAndGetEvn();
 
     ArtMethod* getArtMethod(JNIEnv *env, jobject method);
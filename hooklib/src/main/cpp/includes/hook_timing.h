@@ -0,0 +1,66 @@
+#ifndef SANDHOOK_HOOK_TIMING_H
+#define SANDHOOK_HOOK_TIMING_H
+
+#include <cstdint>
+#include "../utils/lock.h"
+
+namespace SandHook {
+
+    //same order as com.swift.sandhook.HookTiming
+    enum HookPhase {
+        PHASE_RESOLVE = 0,
+        PHASE_PREPARE_STUB = 1,
+        PHASE_SUSPEND = 2,
+        PHASE_COMPILE = 3,
+        PHASE_PATCH = 4,
+        PHASE_RESUME = 5,
+        PHASE_COUNT = 6
+    };
+
+    class HookTiming {
+    public:
+        static int64_t now();
+        static void record(void* key, HookPhase phase, int64_t nanos);
+        //fill PHASE_COUNT times, return false if key not recorded
+        static bool getTimes(void* key, int64_t* times);
+        static void getGlobalTimes(int64_t* times);
+
+        //ATrace of libandroid, ignored if not exist
+        static void traceBegin(HookPhase phase);
+        static void traceEnd();
+    };
+
+    //time of nested phase is excluded from outer phase
+    //key is inherited from outer phase if null
+    class ScopedPhase {
+    public:
+        ScopedPhase(HookPhase phase, void* key = nullptr);
+        ~ScopedPhase();
+    private:
+        void pause(int64_t time);
+        void resume(int64_t time);
+
+        HookPhase phase;
+        void* key;
+        int64_t start;
+        int64_t elapsed = 0;
+        ScopedPhase* outer;
+    };
+
+    class TimedStopTheWorld {
+    public:
+        TimedStopTheWorld(void* key) : key(key) {
+            ScopedPhase suspendPhase(PHASE_SUSPEND, key);
+            suspendVM();
+        }
+        ~TimedStopTheWorld() {
+            ScopedPhase resumePhase(PHASE_RESUME, key);
+            resumeVM();
+        }
+    private:
+        void* key;
+    };
+
+}
+
+#endif //SANDHOOK_HOOK_TIMING_H
@@ -41,9 +41,10 @@
 #define OFFSET_INLINE_OFFSET_ENTRY_CODE 4 * 20
 #define OFFSET_INLINE_ADDR_HOOK_METHOD 4 * 22
 #elif defined(__arm__)
-#define SIZE_REPLACEMENT_HOOK_TRAMPOLINE 4 * 5
-#define OFFSET_REPLACEMENT_ART_METHOD 4 * 3
-#define OFFSET_REPLACEMENT_OFFSET_CODE_ENTRY 4 * 4
+#define SIZE_REPLACEMENT_HOOK_TRAMPOLINE 4 * 9
+#define OFFSET_REPLACEMENT_ART_METHOD 4 * 6
+#define OFFSET_REPLACEMENT_OFFSET_CODE_ENTRY 4 * 7
+#define OFFSET_REPLACEMENT_ORIGIN_CODE 4 * 8
 
 #define SIZE_DIRECT_JUMP_TRAMPOLINE 4 * 2
 #define OFFSET_JUMP_ADDR_TARGET 4 * 1
@@ -60,11 +61,24 @@
 #define OFFSET_CALL_ORIGIN_ART_METHOD 4 * 2
 #define OFFSET_CALL_ORIGIN_JUMP_ADDR 4 * 3
 
+#define SIZE_COUNTING_HOOK_TRAMPOLINE 4 * 19
+#define OFFSET_COUNTING_ART_METHOD 4 * 12
+#define OFFSET_COUNTING_ADDR_CODE_ENTRY 4 * 13
+#define OFFSET_COUNTING_COUNT 4 * 14
+#define OFFSET_COUNTING_LAST_TICKS 4 * 16
+#define OFFSET_COUNTING_SELF_ENTRY 4 * 18
+
+#define SIZE_NATIVE_CALLBACK_TRAMPOLINE 4 * 27
+#define OFFSET_NATIVE_CALLBACK_FN 4 * 24
+#define OFFSET_NATIVE_CALLBACK_ORIGIN_METHOD 4 * 25
+#define OFFSET_NATIVE_CALLBACK_ORIGIN_CODE 4 * 26
+
 #define SIZE_ORIGIN_PLACE_HOLDER 4 * 3
 #elif defined(__aarch64__)
-#define SIZE_REPLACEMENT_HOOK_TRAMPOLINE 4 * 8
-#define OFFSET_REPLACEMENT_ART_METHOD 4 * 4
-#define OFFSET_REPLACEMENT_OFFSET_CODE_ENTRY 4 * 6
+#define SIZE_REPLACEMENT_HOOK_TRAMPOLINE 4 * 14
+#define OFFSET_REPLACEMENT_ART_METHOD 4 * 8
+#define OFFSET_REPLACEMENT_OFFSET_CODE_ENTRY 4 * 10
+#define OFFSET_REPLACEMENT_ORIGIN_CODE 4 * 12
 
 #define SIZE_DIRECT_JUMP_TRAMPOLINE 4 * 4
 #define OFFSET_JUMP_ADDR_TARGET 4 * 2
@@ -80,6 +94,18 @@
 #define OFFSET_CALL_ORIGIN_ART_METHOD 4 * 3
 #define OFFSET_CALL_ORIGIN_JUMP_ADDR 4 * 5
 
+#define SIZE_COUNTING_HOOK_TRAMPOLINE 4 * 22
+#define OFFSET_COUNTING_ART_METHOD 4 * 12
+#define OFFSET_COUNTING_ADDR_CODE_ENTRY 4 * 14
+#define OFFSET_COUNTING_COUNT 4 * 16
+#define OFFSET_COUNTING_LAST_TICKS 4 * 18
+#define OFFSET_COUNTING_SELF_ENTRY 4 * 20
+
+#define SIZE_NATIVE_CALLBACK_TRAMPOLINE 4 * 40
+#define OFFSET_NATIVE_CALLBACK_FN 4 * 34
+#define OFFSET_NATIVE_CALLBACK_ORIGIN_METHOD 4 * 36
+#define OFFSET_NATIVE_CALLBACK_ORIGIN_CODE 4 * 38
+
 #define SIZE_ORIGIN_PLACE_HOLDER 4 * 4
 #else
 #endif
@@ -88,6 +114,8 @@ extern "C" void DIRECT_JUMP_TRAMPOLINE();
 extern "C" void INLINE_HOOK_TRAMPOLINE();
 extern "C" void REPLACEMENT_HOOK_TRAMPOLINE();
 extern "C" void CALL_ORIGIN_TRAMPOLINE();
+extern "C" void COUNTING_HOOK_TRAMPOLINE();
+extern "C" void NATIVE_CALLBACK_TRAMPOLINE();
 
 #if defined(__arm__)
 #include <unistd.h>
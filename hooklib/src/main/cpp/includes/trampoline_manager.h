@@ -7,6 +7,7 @@
 
 #include "map"
 #include "list"
+#include "vector"
 #include "../trampoline/trampoline.cpp"
 #include "../utils/lock.h"
 #include <sys/mman.h>
@@ -32,8 +33,25 @@ namespace SandHook {
         Trampoline* inlineSecondory = nullptr;
         Trampoline* callOrigin = nullptr;
         Trampoline* hookNative = nullptr;
+        CountingHookTrampoline* counting = nullptr;
+        NativeCallbackTrampoline* nativeCallback = nullptr;
+
+        //for re-patch of inline hook
+        mirror::ArtMethod* hookMethod = nullptr;
+        mirror::ArtMethod* backupMethod = nullptr;
 
         Code originCode = nullptr;
+        //insts of origin code overwritten by inline jump, for unhook
+        unsigned char originInsts[SIZE_DIRECT_JUMP_TRAMPOLINE];
+
+        //per method switch, trampoline goes on origin code when disabled
+        bool disabled = false;
+
+        //replacement hook waiting for jit code of origin to upgrade to inline hook
+        bool upgrading = false;
+
+        //access flags of origin before hook, restored by unhook
+        uint32_t originAccessFlags = 0;
     };
 
     class TrampolineManager {
@@ -47,23 +65,79 @@ namespace SandHook {
         }
 
         Code allocExecuteSpace(Size size);
+        CountingHookTrampoline* installCountingTrampoline(mirror::ArtMethod* hookMethod);
 
         //java hook
         HookTrampoline* installReplacementTrampoline(mirror::ArtMethod* originMethod, mirror::ArtMethod* hookMethod, mirror::ArtMethod* backupMethod);
-        HookTrampoline* installInlineTrampoline(mirror::ArtMethod* originMethod, mirror::ArtMethod* hookMethod, mirror::ArtMethod* backupMethod);
+        HookTrampoline* installInlineTrampoline(mirror::ArtMethod* originMethod, mirror::ArtMethod* hookMethod, mirror::ArtMethod* backupMethod) {
+            return installInlineTrampoline(originMethod, hookMethod, backupMethod, getEntryCode(originMethod));
+        }
+        //patch entryCode which may not be published to origin method yet
+        HookTrampoline* installInlineTrampoline(mirror::ArtMethod* originMethod, mirror::ArtMethod* hookMethod, mirror::ArtMethod* backupMethod, Code entryCode);
+
+        //java method hooked by c callback
+        HookTrampoline* installNativeCallbackTrampoline(mirror::ArtMethod* originMethod, void* callback);
+
+        //restore origin insts or a stable entry & access flags of origin, trampoline code is kept alive for running threads
+        //other threads must be suspended
+        bool uninstallHookTrampoline(mirror::ArtMethod* originMethod);
 
         //native hook
         HookTrampoline* installNativeHookTrampolineNoBackup(void* origin, void* hook);
 
         bool canSafeInline(mirror::ArtMethod* method);
+        //compiled code which is not published to the method yet
+        bool canSafeInline(Code compiledCode, void* entry);
+
+        //[art method, count, last ticks] of counting hooks
+        void getHookStats(std::vector<int64_t> &stats);
 
         uint32_t sizeOfEntryCode(mirror::ArtMethod* method);
+        uint32_t sizeOfEntryCode(Code codeEntry);
 
         HookTrampoline* getHookTrampoline(mirror::ArtMethod* method) {
-            return trampolines[method];
+            AutoLock autoLock(installLock);
+            return findHookTrampoline(method);
+        }
+
+        //used when upgrade hook in place, old trampoline code is still alive
+        HookTrampoline* removeHookTrampoline(mirror::ArtMethod* method) {
+            AutoLock autoLock(installLock);
+            auto it = trampolines.find(method);
+            if (it == trampolines.end())
+                return nullptr;
+            HookTrampoline* hookTrampoline = it->second;
+            trampolines.erase(it);
+            return hookTrampoline;
+        }
+
+        void restoreHookTrampoline(mirror::ArtMethod* method, HookTrampoline* hookTrampoline) {
+            AutoLock autoLock(installLock);
+            trampolines[method] = hookTrampoline;
         }
 
+        //all java hooks go on origin code in trampoline
+        void setHooksDisabled(bool disabled) {
+            AutoLock autoLock(installLock);
+            hooksDisabled = disabled;
+            for (auto &item : trampolines) {
+                applyHookSwitch(item.first, item.second);
+            }
+        }
+
+        bool setHookEnabled(mirror::ArtMethod* method, bool enabled) {
+            AutoLock autoLock(installLock);
+            HookTrampoline* hookTrampoline = findHookTrampoline(method);
+            if (hookTrampoline == nullptr)
+                return false;
+            hookTrampoline->disabled = !enabled;
+            applyHookSwitch(method, hookTrampoline);
+            return true;
+        }
+
+        //hooks may be installed without suspending other threads
         bool methodHooked(ArtMethod *method) {
+            AutoLock autoLock(installLock);
             return trampolines.find(method) != trampolines.end();
         }
 
@@ -100,13 +174,34 @@ namespace SandHook {
 
         bool inlineSecurityCheck = true;
         bool skipAllCheck = false;
+        //install counting trampoline for new hooks
+        bool countingHook = false;
     private:
 
+        //installLock must be held
+        void applyHookSwitch(mirror::ArtMethod* method, HookTrampoline* hookTrampoline) {
+            bool off = hooksDisabled || hookTrampoline->disabled;
+            if (hookTrampoline->inlineSecondory != nullptr) {
+                static_cast<InlineHookTrampoline*>(hookTrampoline->inlineSecondory)
+                        ->switchOriginMethod(off ? nullptr : reinterpret_cast<Code>(method));
+            } else if (hookTrampoline->replacement != nullptr) {
+                static_cast<ReplacementHookTrampoline*>(hookTrampoline->replacement)
+                        ->switchHookMethod(off ? nullptr : reinterpret_cast<Code>(hookTrampoline->hookMethod));
+            }
+        }
+
+        //installLock must be held
+        HookTrampoline* findHookTrampoline(mirror::ArtMethod* method) {
+            auto it = trampolines.find(method);
+            return it == trampolines.end() ? nullptr : it->second;
+        }
+
         Size quickCompileOffset;
         std::map<mirror::ArtMethod*,HookTrampoline*> trampolines;
         std::list<Code> executeSpaceList = std::list<Code>();
         std::mutex allocSpaceLock;
         std::mutex installLock;
+        bool hooksDisabled = false;
         Size executePageOffset = 0;
     };
 
@@ -7,7 +7,14 @@
 #include "includes/native_hook.h"
 #include "includes/elf_util.h"
 #include "includes/never_call.h"
+#include "includes/hook_timing.h"
 #include <jni.h>
+#include <vector>
+#include <dlfcn.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/file.h>
+#include <sys/stat.h>
 
 SandHook::TrampolineManager &trampolineManager = SandHook::TrampolineManager::get();
 
@@ -21,6 +28,38 @@ enum HookMode {
 };
 
 HookMode gHookMode = AUTO;
+//install hook without jit, compile & upgrade later in background
+bool gBackgroundCompile = false;
+//compile hook method before suspending other threads, the pause only covers patching
+bool gCompileBeforeSuspend = false;
+
+void compileHookMethod(JNIEnv* env, art::mirror::ArtMethod *hookMethod) {
+    if (gBackgroundCompile)
+        return;
+    SandHook::ScopedPhase compilePhase(SandHook::PHASE_COMPILE);
+    if (!hookMethod->compile(env)) {
+        hookMethod->disableCompilable();
+    }
+}
+
+bool compileOriginMethod(JNIEnv* env, art::mirror::ArtMethod *originMethod) {
+    if (originMethod->isCompiled())
+        return true;
+    if (gBackgroundCompile)
+        return false;
+    SandHook::ScopedPhase compilePhase(SandHook::PHASE_COMPILE, originMethod);
+    return originMethod->compile(env);
+}
+
+bool preferInlineHook(art::mirror::ArtMethod *originMethod, int mode) {
+    if (mode == INLINE)
+        return SDK_INT >= ANDROID_N;
+    if (mode == REPLACE || originMethod->isAbstract())
+        return false;
+    if (gHookMode != AUTO)
+        return gHookMode == INLINE;
+    return SDK_INT >= ANDROID_N && SDK_INT < ANDROID_O;
+}
 
 void ensureMethodCached(art::mirror::ArtMethod *hookMethod, art::mirror::ArtMethod *backupMethod) {
     if (SDK_INT >= ANDROID_P)
@@ -49,6 +88,75 @@ void ensureMethodCached(art::mirror::ArtMethod *hookMethod, art::mirror::ArtMeth
     }
 }
 
+//inline hooked methods keep compilable, new code from jit is patched before published
+bool gRehookOnCodeUpdate = false;
+
+bool isArtStub(const void* code) {
+    return code == nullptr
+           || code == SandHook::CastArtMethod::quickToInterpreterBridge
+           || code == SandHook::CastArtMethod::genericJniStub
+           || code == SandHook::CastArtMethod::staticResolveStub;
+}
+
+bool upgradeToInline(art::mirror::ArtMethod *originMethod,
+                     SandHook::HookTrampoline* replacement, const void *code) {
+    if (!trampolineManager.canSafeInline((Code) code, const_cast<void*>(code)))
+        return false;
+    //threads still in replacement trampoline go on with it
+    trampolineManager.removeHookTrampoline(originMethod);
+    SandHook::HookTrampoline* newTrampoline = trampolineManager.installInlineTrampoline(originMethod,
+            replacement->hookMethod, replacement->backupMethod, (Code) code);
+    if (newTrampoline == nullptr) {
+        trampolineManager.restoreHookTrampoline(originMethod, replacement);
+        return false;
+    }
+    //flags before replacement hook
+    newTrampoline->originAccessFlags = replacement->originAccessFlags;
+    if (replacement->disabled) {
+        trampolineManager.setHookEnabled(originMethod, false);
+    }
+    if (newTrampoline->backupMethod != nullptr && newTrampoline->callOrigin != nullptr) {
+        newTrampoline->backupMethod->publishQuickCodeEntry(newTrampoline->callOrigin->getCode());
+    }
+    LOGD("upgrade replacement hook to inline hook of code %p", code);
+    return true;
+}
+
+bool onHookedMethodCodeUpdate(art::mirror::ArtMethod *origin, const void *code) {
+    //keep entry of hook
+    if (isArtStub(code))
+        return false;
+    SandHook::HookTrampoline* hookTrampoline = trampolineManager.getHookTrampoline(origin);
+    if (hookTrampoline == nullptr)
+        return false;
+    if (hookTrampoline->inlineJump == nullptr) {
+        //code of replacement hook is patched here by upgradeHook, code is not published yet
+        return hookTrampoline->upgrading && upgradeToInline(origin, hookTrampoline, code);
+    }
+    if (code == origin->getQuickCodeEntry())
+        return true;
+    //new code may be too small for the direct jump, keep entry of old hook then
+    if (!trampolineManager.canSafeInline((Code) code, const_cast<void*>(code)))
+        return false;
+    //old code & trampolines are kept alive for threads still running them
+    trampolineManager.removeHookTrampoline(origin);
+    SandHook::HookTrampoline* newTrampoline = trampolineManager.installInlineTrampoline(origin,
+            hookTrampoline->hookMethod, hookTrampoline->backupMethod, (Code) code);
+    if (newTrampoline == nullptr) {
+        trampolineManager.restoreHookTrampoline(origin, hookTrampoline);
+        return false;
+    }
+    newTrampoline->originAccessFlags = hookTrampoline->originAccessFlags;
+    if (hookTrampoline->disabled) {
+        trampolineManager.setHookEnabled(origin, false);
+    }
+    if (newTrampoline->backupMethod != nullptr && newTrampoline->callOrigin != nullptr) {
+        newTrampoline->backupMethod->publishQuickCodeEntry(newTrampoline->callOrigin->getCode());
+    }
+    LOGD("re-patch inline hook of new code %p", code);
+    return true;
+}
+
 void ensureDeclareClass(JNIEnv *env, jclass type, jobject originMethod,
                          jobject backupMethod) {
     if (originMethod == NULL || backupMethod == NULL)
@@ -61,17 +169,27 @@ void ensureDeclareClass(JNIEnv *env, jclass type, jobject originMethod,
     }
 }
 
+//backup copied from origin shares profiling info of origin in data_, and hotness
+//reset them before backup is compilable, or jit & code cache gc see one profiling info from two methods
+void prepareBackupForJit(art::mirror::ArtMethod *backupMethod, bool compilable) {
+    if (!compilable || backupMethod->isNative() || backupMethod->isAbstract()) {
+        backupMethod->disableCompilable();
+        return;
+    }
+    backupMethod->setJniCodeEntry(nullptr);
+    backupMethod->setHotnessCount(0);
+    backupMethod->enableCompilable();
+}
+
 bool doHookWithReplacement(JNIEnv* env,
                            art::mirror::ArtMethod *originMethod,
                            art::mirror::ArtMethod *hookMethod,
                            art::mirror::ArtMethod *backupMethod) {
 
-    if (!hookMethod->compile(env)) {
-        hookMethod->disableCompilable();
-    }
+    uint32_t originAccessFlags = originMethod->getAccessFlags();
 
     if (SDK_INT > ANDROID_N && SDK_INT < ANDROID_Q) {
-        forceProcessProfiles();
+        requestProcessProfiles();
     }
     if ((SDK_INT >= ANDROID_N && SDK_INT <= ANDROID_P)
         || (SDK_INT >= ANDROID_Q && !originMethod->isAbstract())) {
@@ -79,8 +197,10 @@ bool doHookWithReplacement(JNIEnv* env,
     }
 
     if (backupMethod != nullptr) {
+        //backup is compilable if origin was, jit gives it dedicated code
+        //entry of origin is pinned by disableCompilable below
         originMethod->backup(backupMethod);
-        backupMethod->disableCompilable();
+        prepareBackupForJit(backupMethod, backupMethod->isCompilable());
         if (!backupMethod->isStatic()) {
             backupMethod->setPrivate();
         }
@@ -88,7 +208,9 @@ bool doHookWithReplacement(JNIEnv* env,
     }
 
     originMethod->disableCompilable();
-    hookMethod->disableCompilable();
+    if (!gBackgroundCompile) {
+        hookMethod->disableCompilable();
+    }
     hookMethod->flushCache();
 
     originMethod->disableInterpreterForO();
@@ -96,7 +218,7 @@ bool doHookWithReplacement(JNIEnv* env,
 
     SandHook::HookTrampoline* hookTrampoline = trampolineManager.installReplacementTrampoline(originMethod, hookMethod, backupMethod);
     if (hookTrampoline != nullptr) {
-        originMethod->setQuickCodeEntry(hookTrampoline->replacement->getCode());
+        hookTrampoline->originAccessFlags = originAccessFlags;
         void* entryPointFormInterpreter = hookMethod->getInterpreterCodeEntry();
         if (entryPointFormInterpreter != NULL) {
             originMethod->setInterpreterCodeEntry(entryPointFormInterpreter);
@@ -105,6 +227,9 @@ bool doHookWithReplacement(JNIEnv* env,
             backupMethod->setQuickCodeEntry(hookTrampoline->callOrigin->getCode());
             backupMethod->flushCache();
         }
+        //trampolines are ready & flushed, publish entry last
+        //counting trampoline is reached via replacement trampoline, which checks the hook switch
+        originMethod->publishQuickCodeEntry(hookTrampoline->replacement->getCode());
         originMethod->flushCache();
         return true;
     } else {
@@ -117,14 +242,14 @@ bool doHookWithInline(JNIEnv* env,
                       art::mirror::ArtMethod *hookMethod,
                       art::mirror::ArtMethod *backupMethod) {
 
-    //fix >= 8.1
-    if (!hookMethod->compile(env)) {
-        hookMethod->disableCompilable();
+    bool originCompilable = originMethod->isCompilable();
+    uint32_t originAccessFlags = originMethod->getAccessFlags();
+    //new code of jit will be re-patched
+    if (!gRehookOnCodeUpdate) {
+        originMethod->disableCompilable();
     }
-
-    originMethod->disableCompilable();
     if (SDK_INT > ANDROID_N && SDK_INT < ANDROID_Q) {
-        forceProcessProfiles();
+        requestProcessProfiles();
     }
     if ((SDK_INT >= ANDROID_N && SDK_INT <= ANDROID_P)
         || (SDK_INT >= ANDROID_Q && !originMethod->isAbstract())) {
@@ -136,13 +261,15 @@ bool doHookWithInline(JNIEnv* env,
 
     if (hookTrampoline == nullptr)
         return false;
+    hookTrampoline->originAccessFlags = originAccessFlags;
 
     hookMethod->flushCache();
     if (hookTrampoline->callOrigin != nullptr) {
         //backup
         originMethod->backup(backupMethod);
         backupMethod->setQuickCodeEntry(hookTrampoline->callOrigin->getCode());
-        backupMethod->disableCompilable();
+        //let jit compile backup once hot instead of running origin by call origin trampoline
+        prepareBackupForJit(backupMethod, originCompilable);
         if (!backupMethod->isStatic()) {
             backupMethod->setPrivate();
         }
@@ -152,6 +279,168 @@ bool doHookWithInline(JNIEnv* env,
 }
 
 
+int installHook(JNIEnv* env,
+                art::mirror::ArtMethod *origin,
+                art::mirror::ArtMethod *hook,
+                art::mirror::ArtMethod *backup,
+                bool isInlineHook) {
+    //fix >= 8.1, hook method is compiled for both inline & replacement hook
+    //jit commits code of hook method by itself, so it can be compiled before suspension
+    if (gCompileBeforeSuspend) {
+        compileHookMethod(env, hook);
+    }
+    //suspend other threads
+    SandHook::TimedStopTheWorld stopTheWorld(origin);
+    SandHook::ScopedPhase patchPhase(SandHook::PHASE_PATCH, origin);
+    if (!gCompileBeforeSuspend) {
+        compileHookMethod(env, hook);
+    }
+    if (isInlineHook && trampolineManager.canSafeInline(origin)
+        && doHookWithInline(env, origin, hook, backup)) {
+        return INLINE;
+    }
+    //fallback to replacement if inline trampoline can not be installed, e.g. relocate error
+    return doHookWithReplacement(env, origin, hook, backup) ? REPLACE : -1;
+}
+
+//search jni function in loaded libraries, as art does when native method is first called
+void* findJniFunction(const char* shortName, const char* longName) {
+    void* fn = dlsym(RTLD_DEFAULT, shortName);
+    if (fn == nullptr) {
+        fn = dlsym(RTLD_DEFAULT, longName);
+    }
+    if (fn != nullptr)
+        return fn;
+    //libraries of app are loaded in other namespace
+    fn = SandHook::findLoadedSymbol(shortName);
+    if (fn == nullptr) {
+        fn = SandHook::findLoadedSymbol(longName);
+    }
+    return fn;
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_swift_sandhook_SandHook_hookNativeMethod(JNIEnv *env, jclass type, jobject originMethod, jlong newEntry,
+                                                  jstring shortName, jstring longName) {
+    if (originMethod == NULL || newEntry == 0)
+        return 0;
+    art::mirror::ArtMethod* origin = getArtMethod(env, originMethod);
+    if (origin == nullptr || !origin->isNative())
+        return 0;
+    void* originEntry = origin->getJniCodeEntry();
+    while (true) {
+        void* resolved = originEntry;
+        if (isJniDlsymLookupStub(originEntry)) {
+            const char* shortChars = env->GetStringUTFChars(shortName, nullptr);
+            const char* longChars = env->GetStringUTFChars(longName, nullptr);
+            resolved = findJniFunction(shortChars, longChars);
+            env->ReleaseStringUTFChars(shortName, shortChars);
+            env->ReleaseStringUTFChars(longName, longChars);
+            if (resolved == nullptr) {
+                LOGE("can not find jni function of native method!");
+                return 0;
+            }
+        }
+        if (origin->casJniCodeEntry(originEntry, reinterpret_cast<void *>(newEntry)))
+            return reinterpret_cast<jlong>(resolved);
+        //registered by others meanwhile
+        originEntry = origin->getJniCodeEntry();
+    }
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_swift_sandhook_SandHook_hookWithNativeCallback(JNIEnv *env, jclass type, jobject originMethod, jlong callback) {
+    if (SDK_INT < ANDROID_N || originMethod == NULL || callback == 0)
+        return JNI_FALSE;
+    art::mirror::ArtMethod* origin = getArtMethod(env, originMethod);
+    if (origin == nullptr || origin->isAbstract() || trampolineManager.methodHooked(origin))
+        return JNI_FALSE;
+
+    SandHook::TimedStopTheWorld stopTheWorld(origin);
+    SandHook::ScopedPhase patchPhase(SandHook::PHASE_PATCH, origin);
+    if (SDK_INT > ANDROID_N && SDK_INT < ANDROID_Q) {
+        requestProcessProfiles();
+    }
+    uint32_t originAccessFlags = origin->getAccessFlags();
+    origin->setHotnessCount(0);
+    origin->disableCompilable();
+    origin->disableInterpreterForO();
+    origin->disableFastInterpreterForQ();
+
+    SandHook::HookTrampoline* hookTrampoline = trampolineManager.installNativeCallbackTrampoline(origin,
+            reinterpret_cast<void *>(callback));
+    if (hookTrampoline == nullptr)
+        return JNI_FALSE;
+    hookTrampoline->originAccessFlags = originAccessFlags;
+    origin->publishQuickCodeEntry(hookTrampoline->nativeCallback->getCode());
+    origin->flushCache();
+    return JNI_TRUE;
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_swift_sandhook_SandHook_unhookMethod(JNIEnv *env, jclass type, jobject originMethod) {
+    //interpreter entry of origin is replaced before 7.0
+    if (SDK_INT < ANDROID_N || originMethod == NULL)
+        return JNI_FALSE;
+    art::mirror::ArtMethod* origin = getArtMethod(env, originMethod);
+    if (origin == nullptr || !trampolineManager.methodHooked(origin))
+        return JNI_FALSE;
+
+    //no thread is in the patched head of origin code at suspend points
+    SandHook::StopTheWorld stopTheWorld;
+    if (!trampolineManager.uninstallHookTrampoline(origin))
+        return JNI_FALSE;
+    return JNI_TRUE;
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_swift_sandhook_SandHook_flushProfiles(JNIEnv *env, jclass type) {
+    return static_cast<jboolean>(flushProfiles());
+}
+
+//same lock as LockedFile of art, which ProfileSaver holds when merging & writing profiles
+//the file may be replaced while waiting for the lock, so it is locked again until fd is still the file at path
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_swift_sandhook_SandHook_lockFile(JNIEnv *env, jclass type, jstring path) {
+    const char* filePath = env->GetStringUTFChars(path, nullptr);
+    int fd;
+    while (true) {
+        fd = open(filePath, O_RDWR | O_CLOEXEC);
+        if (fd < 0)
+            break;
+        if (TEMP_FAILURE_RETRY(flock(fd, LOCK_EX)) != 0) {
+            close(fd);
+            fd = -1;
+            break;
+        }
+        struct stat fdStat, pathStat;
+        if (fstat(fd, &fdStat) != 0) {
+            close(fd);
+            fd = -1;
+            break;
+        }
+        if (stat(filePath, &pathStat) == 0 && fdStat.st_dev == pathStat.st_dev
+            && fdStat.st_ino == pathStat.st_ino)
+            break;
+        close(fd);
+    }
+    env->ReleaseStringUTFChars(path, filePath);
+    return fd;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_swift_sandhook_SandHook_unlockFile(JNIEnv *env, jclass type, jint fd) {
+    if (fd >= 0) {
+        close(fd);
+    }
+}
+
 extern "C"
 JNIEXPORT jboolean JNICALL
 Java_com_swift_sandhook_SandHook_initNative(JNIEnv *env, jclass type, jint sdk, jboolean debug) {
@@ -160,7 +449,10 @@ Java_com_swift_sandhook_SandHook_initNative(JNIEnv *env, jclass type, jint sdk,
     SandHook::CastCompilerOptions::init(env);
     initHideApi(env);
     SandHook::CastArtMethod::init(env);
-    trampolineManager.init(SandHook::CastArtMethod::entryPointQuickCompiled->getOffset());
+    trampolineManager.init(art::mirror::ArtMethod::layout.entryPointQuickCompiled);
+    if (SDK_INT >= ANDROID_N) {
+        gRehookOnCodeUpdate = hookMethodsCodeUpdate(onHookedMethodCodeUpdate);
+    }
     return JNI_TRUE;
 
 }
@@ -175,6 +467,10 @@ Java_com_swift_sandhook_SandHook_hookMethod(JNIEnv *env, jclass type, jobject or
     art::mirror::ArtMethod* backup = backupMethod == NULL ? nullptr : getArtMethod(env,
                                                                                    backupMethod);
 
+    //e.g. hooked by native callback
+    if (trampolineManager.methodHooked(origin))
+        return -1;
+
     bool isInlineHook = false;
 
     int mode = reinterpret_cast<int>(hookMode);
@@ -182,7 +478,7 @@ Java_com_swift_sandhook_SandHook_hookMethod(JNIEnv *env, jclass type, jobject or
     if (mode == INLINE) {
         if (!origin->isCompiled()) {
             if (SDK_INT >= ANDROID_N) {
-                isInlineHook = origin->compile(env);
+                isInlineHook = compileOriginMethod(env, origin);
             }
         } else {
             isInlineHook = true;
@@ -197,7 +493,7 @@ Java_com_swift_sandhook_SandHook_hookMethod(JNIEnv *env, jclass type, jobject or
         isInlineHook = false;
     } else if (gHookMode != AUTO) {
         if (gHookMode == INLINE) {
-            isInlineHook = origin->compile(env);
+            isInlineHook = compileOriginMethod(env, origin);
         } else {
             isInlineHook = false;
         }
@@ -205,7 +501,7 @@ Java_com_swift_sandhook_SandHook_hookMethod(JNIEnv *env, jclass type, jobject or
         isInlineHook = false;
     } else if (!origin->isCompiled()) {
         if (SDK_INT >= ANDROID_N) {
-            isInlineHook = origin->compile(env);
+            isInlineHook = compileOriginMethod(env, origin);
         } else {
             isInlineHook = false;
         }
@@ -215,14 +511,70 @@ Java_com_swift_sandhook_SandHook_hookMethod(JNIEnv *env, jclass type, jobject or
 
 
 label_hook:
-    //suspend other threads
-    SandHook::StopTheWorld stopTheWorld;
-    if (isInlineHook && trampolineManager.canSafeInline(origin)) {
-        return doHookWithInline(env, origin, hook, backup) ? INLINE : -1;
-    } else {
-        return doHookWithReplacement(env, origin, hook, backup) ? REPLACE : -1;
+    return installHook(env, origin, hook, backup, isInlineHook);
+
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_swift_sandhook_SandHook_upgradeHook(JNIEnv *env, jclass type, jobject originMethod,
+                                             jobject hookMethod, jobject backupMethod, jint hookMode) {
+
+    art::mirror::ArtMethod* origin = getArtMethod(env, originMethod);
+    art::mirror::ArtMethod* hook = getArtMethod(env, hookMethod);
+    art::mirror::ArtMethod* backup = backupMethod == NULL ? nullptr : getArtMethod(env,
+                                                                                   backupMethod);
+
+    if (!trampolineManager.methodHooked(origin))
+        return -1;
+
+    SandHook::HookTrampoline* hookTrampoline = trampolineManager.getHookTrampoline(origin);
+    if (hookTrampoline->inlineJump != nullptr)
+        return INLINE;
+
+    //native flag is set for interpreter of O in debug mode, can not be inline
+    //new code of origin is patched by onHookedMethodCodeUpdate before published,
+    //origin code was compiled but not safe to inline, nothing to do
+    bool canUpgrade = !(SDK_INT >= ANDROID_O && SDK_INT < ANDROID_R && DEBUG)
+                      && gRehookOnCodeUpdate
+                      && preferInlineHook(origin, hookMode)
+                      && hookTrampoline->originCode == SandHook::CastArtMethod::quickToInterpreterBridge;
+
+    //jit of hook method is done by caller in background
+    {
+        SandHook::StopTheWorld stopTheWorld;
+        hook->disableCompilable();
+        hook->flushCache();
+        if (canUpgrade) {
+            hookTrampoline->upgrading = true;
+            origin->enableCompilable();
+        }
     }
+    if (!canUpgrade)
+        return REPLACE;
 
+    //compile with other threads running, entry of origin is not changed by jit commit
+    compileMethod(origin, getCurrentThread());
+
+    SandHook::StopTheWorld stopTheWorld;
+    hookTrampoline->upgrading = false;
+    if (trampolineManager.getHookTrampoline(origin)->inlineJump != nullptr)
+        return INLINE;
+    origin->disableCompilable();
+    origin->flushCache();
+    return REPLACE;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_swift_sandhook_SandHook_setBackgroundCompile(JNIEnv *env, jclass type, jboolean enable) {
+    gBackgroundCompile = enable;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_swift_sandhook_SandHook_setCompileBeforeSuspend(JNIEnv *env, jclass type, jboolean enable) {
+    gCompileBeforeSuspend = enable;
 }
 
 extern "C"
@@ -289,6 +641,157 @@ Java_com_swift_sandhook_SandHook_deCompileMethod(JNIEnv *env, jclass type, jobje
 
 }
 
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_swift_sandhook_SandHook_compileMethods(JNIEnv *env, jclass type, jobjectArray members) {
+
+    if (members == NULL)
+        return 0;
+
+    jint compiled = 0;
+    std::vector<art::mirror::ArtMethod*> failedMethods;
+
+    //jit compiler commits code & entry by itself, no need to suspend others here
+    jsize count = env->GetArrayLength(members);
+    for (jsize i = 0; i < count; i++) {
+        jobject member = env->GetObjectArrayElement(members, i);
+        if (member == NULL)
+            continue;
+        art::mirror::ArtMethod* method = getArtMethod(env, member);
+        env->DeleteLocalRef(member);
+        if (method == nullptr)
+            continue;
+        if (method->isCompiled() || method->compile(env)) {
+            compiled++;
+        } else {
+            failedMethods.push_back(method);
+        }
+    }
+
+    //only publish flags of failed methods in one suspension
+    if (SDK_INT >= ANDROID_N && !failedMethods.empty()) {
+        SandHook::StopTheWorld stopTheWorld;
+        for (art::mirror::ArtMethod* method : failedMethods) {
+            method->disableCompilable();
+            method->flushCache();
+        }
+    }
+
+    return compiled;
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_swift_sandhook_SandHook_deCompileMethods(JNIEnv *env, jclass type, jobjectArray members, jboolean disableJit) {
+
+    if (members == NULL)
+        return 0;
+
+    jint deCompiled = 0;
+    std::vector<art::mirror::ArtMethod*> compiledMethods;
+
+    jsize count = env->GetArrayLength(members);
+    for (jsize i = 0; i < count; i++) {
+        jobject member = env->GetObjectArrayElement(members, i);
+        if (member == NULL)
+            continue;
+        art::mirror::ArtMethod* method = getArtMethod(env, member);
+        env->DeleteLocalRef(member);
+        if (method == nullptr)
+            continue;
+        //without disableJit only entry is reset, jit compiles it again under the inliner filter
+        if (disableJit) {
+            method->disableCompilable();
+        }
+        if (method->isCompiled()) {
+            compiledMethods.push_back(method);
+        } else {
+            deCompiled++;
+        }
+    }
+
+    if (compiledMethods.empty())
+        return deCompiled;
+
+    //reset all entry points in one suspension
+    SandHook::StopTheWorld stopTheWorld;
+    for (art::mirror::ArtMethod* method : compiledMethods) {
+        if (method->deCompile()) {
+            deCompiled++;
+        }
+    }
+    return deCompiled;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_swift_sandhook_SandHook_setHooksDisabled(JNIEnv *env, jclass type, jboolean disabled) {
+    trampolineManager.setHooksDisabled(disabled);
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_swift_sandhook_SandHook_setHookEnabled(JNIEnv *env, jclass type, jobject originMethod, jboolean enabled) {
+    if (originMethod == NULL)
+        return JNI_FALSE;
+    art::mirror::ArtMethod* origin = getArtMethod(env, originMethod);
+    return static_cast<jboolean>(trampolineManager.setHookEnabled(origin, enabled));
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_swift_sandhook_SandHook_setHookCounting(JNIEnv *env, jclass type, jboolean enable) {
+    trampolineManager.countingHook = enable;
+}
+
+extern "C"
+JNIEXPORT jlongArray JNICALL
+Java_com_swift_sandhook_SandHook_getHookStats(JNIEnv *env, jclass type) {
+    std::vector<int64_t> stats;
+    trampolineManager.getHookStats(stats);
+    jlongArray res = env->NewLongArray(static_cast<jsize>(stats.size()));
+    if (res == NULL)
+        return NULL;
+    if (!stats.empty()) {
+        env->SetLongArrayRegion(res, 0, static_cast<jsize>(stats.size()), reinterpret_cast<const jlong *>(stats.data()));
+    }
+    return res;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_swift_sandhook_SandHook_addHookPhaseTime(JNIEnv *env, jclass type, jobject member, jint phase, jlong nanos) {
+    void* key = member == NULL ? nullptr : getArtMethod(env, member);
+    SandHook::HookTiming::record(key, static_cast<SandHook::HookPhase>(phase), nanos);
+}
+
+extern "C"
+JNIEXPORT jlongArray JNICALL
+Java_com_swift_sandhook_SandHook_getHookPhaseTimes(JNIEnv *env, jclass type, jobject member) {
+    if (member == NULL)
+        return NULL;
+    int64_t times[SandHook::PHASE_COUNT];
+    if (!SandHook::HookTiming::getTimes(getArtMethod(env, member), times))
+        return NULL;
+    jlongArray res = env->NewLongArray(SandHook::PHASE_COUNT);
+    if (res != NULL) {
+        env->SetLongArrayRegion(res, 0, SandHook::PHASE_COUNT, reinterpret_cast<const jlong *>(times));
+    }
+    return res;
+}
+
+extern "C"
+JNIEXPORT jlongArray JNICALL
+Java_com_swift_sandhook_SandHook_getGlobalHookPhaseTimes(JNIEnv *env, jclass type) {
+    int64_t times[SandHook::PHASE_COUNT];
+    SandHook::HookTiming::getGlobalTimes(times);
+    jlongArray res = env->NewLongArray(SandHook::PHASE_COUNT);
+    if (res != NULL) {
+        env->SetLongArrayRegion(res, 0, SandHook::PHASE_COUNT, reinterpret_cast<const jlong *>(times));
+    }
+    return res;
+}
+
 extern "C"
 JNIEXPORT jobject JNICALL
 Java_com_swift_sandhook_SandHook_getObjectNative(JNIEnv *env, jclass type, jlong thread,
@@ -296,6 +799,35 @@ Java_com_swift_sandhook_SandHook_getObjectNative(JNIEnv *env, jclass type, jlong
     return getJavaObject(env, thread ? reinterpret_cast<void *>(thread) : getCurrentThread(), reinterpret_cast<void *>(address));
 }
 
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_swift_sandhook_SandHook_getObjects(JNIEnv *env, jclass type, jlongArray addresses,
+                                            jobjectArray out, jint count) {
+    if (addresses == NULL || out == NULL || count <= 0)
+        return 0;
+    std::vector<jlong> rawAddresses(static_cast<size_t>(count));
+    env->GetLongArrayRegion(addresses, 0, count, rawAddresses.data());
+    std::vector<Size> objAddresses(static_cast<size_t>(count));
+    for (int i = 0; i < count; i++) {
+        objAddresses[i] = static_cast<Size>(rawAddresses[i]);
+    }
+    std::vector<jobject> objects(static_cast<size_t>(count));
+    jint decoded = getJavaObjects(env, getCurrentThread(), objAddresses.data(), objects.data(), count);
+    for (int i = 0; i < count; i++) {
+        if (objects[i] == nullptr)
+            continue;
+        env->SetObjectArrayElement(out, i, objects[i]);
+        env->DeleteLocalRef(objects[i]);
+    }
+    return decoded;
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_swift_sandhook_SandHook_getCurrentThreadPeer(JNIEnv *env, jclass type) {
+    return reinterpret_cast<jlong>(getCurrentThread());
+}
+
 extern "C"
 JNIEXPORT jboolean JNICALL
 Java_com_swift_sandhook_SandHook_canGetObject(JNIEnv *env, jclass type) {
@@ -330,6 +862,9 @@ JNIEXPORT jboolean JNICALL
 Java_com_swift_sandhook_SandHook_disableVMInline(JNIEnv *env, jclass type) {
     if (SDK_INT < ANDROID_N)
         return JNI_FALSE;
+    //hooked methods are never inlined by jit, keep inline for others
+    if (isJitInlinerHooked())
+        return JNI_TRUE;
     replaceUpdateCompilerOptionsQ();
     art::CompilerOptions* compilerOptions = getGlobalCompilerOptions();
     if (compilerOptions == nullptr)
@@ -433,11 +968,66 @@ static JNINativeMethod jniSandHook[] = {
                 "(Ljava/lang/reflect/Member;Ljava/lang/reflect/Method;Ljava/lang/reflect/Method;I)I",
                 (void *) Java_com_swift_sandhook_SandHook_hookMethod
         },
+        {
+                "upgradeHook",
+                "(Ljava/lang/reflect/Member;Ljava/lang/reflect/Method;Ljava/lang/reflect/Method;I)I",
+                (void *) Java_com_swift_sandhook_SandHook_upgradeHook
+        },
+        {
+                "setBackgroundCompile",
+                "(Z)V",
+                (void *) Java_com_swift_sandhook_SandHook_setBackgroundCompile
+        },
+        {
+                "setCompileBeforeSuspend",
+                "(Z)V",
+                (void *) Java_com_swift_sandhook_SandHook_setCompileBeforeSuspend
+        },
         {
                 "ensureMethodCached",
                 "(Ljava/lang/reflect/Method;Ljava/lang/reflect/Method;)V",
                 (void *) Java_com_swift_sandhook_SandHook_ensureMethodCached
         },
+        {
+                "unhookMethod",
+                "(Ljava/lang/reflect/Member;)Z",
+                (void *) Java_com_swift_sandhook_SandHook_unhookMethod
+        },
+        {
+                "setHooksDisabled",
+                "(Z)V",
+                (void *) Java_com_swift_sandhook_SandHook_setHooksDisabled
+        },
+        {
+                "setHookEnabled",
+                "(Ljava/lang/reflect/Member;Z)Z",
+                (void *) Java_com_swift_sandhook_SandHook_setHookEnabled
+        },
+        {
+                "hookNativeMethod",
+                "(Ljava/lang/reflect/Member;JLjava/lang/String;Ljava/lang/String;)J",
+                (void *) Java_com_swift_sandhook_SandHook_hookNativeMethod
+        },
+        {
+                "hookWithNativeCallback",
+                "(Ljava/lang/reflect/Member;J)Z",
+                (void *) Java_com_swift_sandhook_SandHook_hookWithNativeCallback
+        },
+        {
+                "flushProfiles",
+                "()Z",
+                (void *) Java_com_swift_sandhook_SandHook_flushProfiles
+        },
+        {
+                "lockFile",
+                "(Ljava/lang/String;)I",
+                (void *) Java_com_swift_sandhook_SandHook_lockFile
+        },
+        {
+                "unlockFile",
+                "(I)V",
+                (void *) Java_com_swift_sandhook_SandHook_unlockFile
+        },
         {
                 "ensureDeclareClass",
                 "(Ljava/lang/reflect/Member;Ljava/lang/reflect/Method;)V",
@@ -453,11 +1043,56 @@ static JNINativeMethod jniSandHook[] = {
                 "(Ljava/lang/reflect/Member;Z)Z",
                 (void *) Java_com_swift_sandhook_SandHook_deCompileMethod
         },
+        {
+                "compileMethods",
+                "([Ljava/lang/reflect/Member;)I",
+                (void *) Java_com_swift_sandhook_SandHook_compileMethods
+        },
+        {
+                "deCompileMethods",
+                "([Ljava/lang/reflect/Member;Z)I",
+                (void *) Java_com_swift_sandhook_SandHook_deCompileMethods
+        },
+        {
+                "setHookCounting",
+                "(Z)V",
+                (void *) Java_com_swift_sandhook_SandHook_setHookCounting
+        },
+        {
+                "getHookStats",
+                "()[J",
+                (void *) Java_com_swift_sandhook_SandHook_getHookStats
+        },
+        {
+                "addHookPhaseTime",
+                "(Ljava/lang/reflect/Member;IJ)V",
+                (void *) Java_com_swift_sandhook_SandHook_addHookPhaseTime
+        },
+        {
+                "getHookPhaseTimes",
+                "(Ljava/lang/reflect/Member;)[J",
+                (void *) Java_com_swift_sandhook_SandHook_getHookPhaseTimes
+        },
+        {
+                "getGlobalHookPhaseTimes",
+                "()[J",
+                (void *) Java_com_swift_sandhook_SandHook_getGlobalHookPhaseTimes
+        },
         {
                 "getObjectNative",
                 "(JJ)Ljava/lang/Object;",
                 (void *) Java_com_swift_sandhook_SandHook_getObjectNative
         },
+        {
+                "getObjects",
+                "([J[Ljava/lang/Object;I)I",
+                (void *) Java_com_swift_sandhook_SandHook_getObjects
+        },
+        {
+                "getCurrentThreadPeer",
+                "()J",
+                (void *) Java_com_swift_sandhook_SandHook_getCurrentThreadPeer
+        },
         {
                 "canGetObject",
                 "()Z",
@@ -45,6 +45,20 @@ namespace SandHook {
             codeCopy(reinterpret_cast<Code>(&codeEntry), OFFSET_REPLACEMENT_OFFSET_CODE_ENTRY, BYTE_POINT);
         }
 
+        void setOriginCode(Code originCode) {
+            codeCopy(reinterpret_cast<Code>(&originCode), OFFSET_REPLACEMENT_ORIGIN_CODE, BYTE_POINT);
+        }
+
+        //jump to another trampoline which holds hook method, e.g. counting trampoline
+        void setHookCodeEntryAddr(void* codeEntryAddr) {
+            codeCopy(reinterpret_cast<Code>(&codeEntryAddr), OFFSET_REPLACEMENT_OFFSET_CODE_ENTRY, BYTE_POINT);
+        }
+
+        //null hook method goes on origin code, slot is aligned so never torn
+        void switchHookMethod(Code hookMethod) {
+            __atomic_store_n(reinterpret_cast<Code*>((Size)code + OFFSET_REPLACEMENT_ART_METHOD), hookMethod, __ATOMIC_RELEASE);
+        }
+
     protected:
         Size codeLength() override {
             return SIZE_REPLACEMENT_HOOK_TRAMPOLINE;
@@ -64,6 +78,12 @@ namespace SandHook {
             codeCopy(reinterpret_cast<Code>(&codeEntry), OFFSET_INLINE_ADDR_ORIGIN_CODE_ENTRY, BYTE_POINT);
         }
 
+        //null origin method never matches, all calls go on origin code
+        //a torn value is either origin or not, both are fine
+        void switchOriginMethod(Code originMethod) {
+            codeCopy(reinterpret_cast<Code>(&originMethod), OFFSET_INLINE_ORIGIN_ART_METHOD, BYTE_POINT);
+        }
+
         void setHookMethod(Code hookMethod) {
             codeCopy(reinterpret_cast<Code>(&hookMethod), OFFSET_INLINE_HOOK_ART_METHOD, BYTE_POINT);
             void* codeEntry = getEntryCodeAddr(hookMethod);
@@ -88,6 +108,20 @@ namespace SandHook {
             codeCopy(originCode, OFFSET_INLINE_ORIGIN_CODE, codeLen);
         }
 
+        //origin insts are relocated elsewhere, just jump to them
+        void setOriginCodeJump(Code relocatedCode) {
+            DirectJumpTrampoline directJumpTrampoline;
+            directJumpTrampoline.setThumb(isThumbCode());
+            directJumpTrampoline.init();
+            directJumpTrampoline.setExecuteSpace(reinterpret_cast<Code>((Size)code + OFFSET_INLINE_ORIGIN_CODE));
+            directJumpTrampoline.setJumpTarget(relocatedCode);
+        }
+
+        //jump to another trampoline which holds hook method, e.g. counting trampoline
+        void setHookCodeEntryAddr(void* codeEntryAddr) {
+            codeCopy(reinterpret_cast<Code>(&codeEntryAddr), OFFSET_INLINE_ADDR_HOOK_CODE_ENTRY, BYTE_POINT);
+        }
+
         Code getCallOriginCode() {
             return reinterpret_cast<Code>((Size)getCode() + OFFSET_INLINE_ORIGIN_CODE);
         }
@@ -110,6 +144,66 @@ namespace SandHook {
         }
     };
 
+    //same as replacement, but count calls & sample cycle counter on entry
+    class CountingHookTrampoline : public Trampoline {
+    public:
+
+        void setHookMethod(Code hookMethod) {
+            codeCopy(reinterpret_cast<Code>(&hookMethod), OFFSET_COUNTING_ART_METHOD, BYTE_POINT);
+            void* codeEntry = getEntryCodeAddr(hookMethod);
+            codeCopy(reinterpret_cast<Code>(&codeEntry), OFFSET_COUNTING_ADDR_CODE_ENTRY, BYTE_POINT);
+            Code selfEntry = getCode();
+            codeCopy(reinterpret_cast<Code>(&selfEntry), OFFSET_COUNTING_SELF_ENTRY, BYTE_POINT);
+        }
+
+        //slot holds the entry of this trampoline, for inline trampoline
+        void* getSelfEntryAddr() {
+            return reinterpret_cast<void*>((Size)code + OFFSET_COUNTING_SELF_ENTRY);
+        }
+
+        uint64_t getCount() {
+            return __atomic_load_n(reinterpret_cast<uint64_t*>((Size)code + OFFSET_COUNTING_COUNT), __ATOMIC_RELAXED);
+        }
+
+        uint64_t getLastTicks() {
+            return __atomic_load_n(reinterpret_cast<uint64_t*>((Size)code + OFFSET_COUNTING_LAST_TICKS), __ATOMIC_RELAXED);
+        }
+
+    protected:
+        Size codeLength() override {
+            return SIZE_COUNTING_HOOK_TRAMPOLINE;
+        }
+
+        Code templateCode() override {
+            return reinterpret_cast<Code>(COUNTING_HOOK_TRAMPOLINE);
+        }
+    };
+
+    class NativeCallbackTrampoline : public Trampoline {
+    public:
+
+        void setCallback(void* callback) {
+            codeCopy(reinterpret_cast<Code>(&callback), OFFSET_NATIVE_CALLBACK_FN, BYTE_POINT);
+        }
+
+        void setOriginMethod(Code originMethod) {
+            codeCopy(reinterpret_cast<Code>(&originMethod), OFFSET_NATIVE_CALLBACK_ORIGIN_METHOD, BYTE_POINT);
+        }
+
+        void setOriginCode(Code originCode) {
+            codeCopy(reinterpret_cast<Code>(&originCode), OFFSET_NATIVE_CALLBACK_ORIGIN_CODE, BYTE_POINT);
+        }
+
+    protected:
+        Size codeLength() override {
+            return SIZE_NATIVE_CALLBACK_TRAMPOLINE;
+        }
+
+        Code templateCode() override {
+            return reinterpret_cast<Code>(NATIVE_CALLBACK_TRAMPOLINE);
+        }
+    };
+
     class CallOriginTrampoline : public Trampoline {
     public:
 
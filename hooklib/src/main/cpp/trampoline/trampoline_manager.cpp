@@ -13,7 +13,10 @@ namespace SandHook {
 
 
     uint32_t TrampolineManager::sizeOfEntryCode(mirror::ArtMethod *method) {
-        Code codeEntry = getEntryCode(method);
+        return sizeOfEntryCode(getEntryCode(method));
+    }
+
+    uint32_t TrampolineManager::sizeOfEntryCode(Code codeEntry) {
         if (codeEntry == nullptr)
             return 0;
         #if defined(__arm__)
@@ -63,21 +66,30 @@ namespace SandHook {
     public:
 
         Size instSize = 0;
+        bool pcRelated = false;
 
         bool visit(Inst *inst, Size offset, Size length) override {
             instSize += inst->instLen();
+            if (inst->pcRelated()) {
+                pcRelated = true;
+            }
             return true;
         }
     };
 
     bool TrampolineManager::canSafeInline(mirror::ArtMethod *method) {
+        return canSafeInline(method->isCompiled() ? getEntryCode(method) : nullptr,
+                             method->getQuickCodeEntry());
+    }
+
+    bool TrampolineManager::canSafeInline(Code compiledCode, void* entry) {
 
         if (skipAllCheck)
             return true;
 
         //check size
-        if (method->isCompiled()) {
-            uint32_t originCodeSize = sizeOfEntryCode(method);
+        if (compiledCode != nullptr) {
+            uint32_t originCodeSize = sizeOfEntryCode(compiledCode);
             if (originCodeSize < SIZE_DIRECT_JUMP_TRAMPOLINE) {
                 LOGW("can not inline due to origin code is too small(size is %d)", originCodeSize);
                 return false;
@@ -87,12 +99,18 @@ namespace SandHook {
         //check pc relate inst & backup inst len
         PCRelatedCheckVisitor visitor(this);
 
-        InstDecode::decode(method->getQuickCodeEntry(), SIZE_DIRECT_JUMP_TRAMPOLINE, &visitor);
+        InstDecode::decode(entry, SIZE_DIRECT_JUMP_TRAMPOLINE, &visitor);
 
-        return (!visitor.pcRelated) && visitor.canSafeBackup;
+        if ((!visitor.pcRelated) && visitor.canSafeBackup)
+            return true;
+
+        //pc related insts will be relocated
+        return canRelocateCode();
     }
 
     Code TrampolineManager::allocExecuteSpace(Size size) {
+        //keep 8 bytes align for 64bit data in trampolines
+        size = (size + 7) & ~static_cast<Size>(7);
         if (size > EXE_BLOCK_SIZE)
             return 0;
         AutoLock autoLock(allocSpaceLock);
@@ -121,13 +139,65 @@ namespace SandHook {
         return exeSpace;
     }
 
+    CountingHookTrampoline* TrampolineManager::installCountingTrampoline(mirror::ArtMethod *hookMethod) {
+        CountingHookTrampoline* countingHookTrampoline = new CountingHookTrampoline();
+        countingHookTrampoline->init();
+        Code countingHookTrampolineSpace = allocExecuteSpace(countingHookTrampoline->getCodeLen());
+        if (countingHookTrampolineSpace == 0) {
+            delete countingHookTrampoline;
+            return nullptr;
+        }
+        countingHookTrampoline->setExecuteSpace(countingHookTrampolineSpace);
+        countingHookTrampoline->setEntryCodeOffset(quickCompileOffset);
+        countingHookTrampoline->setHookMethod(reinterpret_cast<Code>(hookMethod));
+        return countingHookTrampoline;
+    }
+
+    void TrampolineManager::getHookStats(std::vector<int64_t> &stats) {
+        AutoLock autoLock(installLock);
+        for (auto &item : trampolines) {
+            CountingHookTrampoline* counting = item.second == nullptr ? nullptr : item.second->counting;
+            if (counting == nullptr)
+                continue;
+            stats.push_back(reinterpret_cast<Size>(item.first));
+            stats.push_back(counting->getCount());
+            stats.push_back(counting->getLastTicks());
+        }
+    }
+
+    HookTrampoline* TrampolineManager::installNativeCallbackTrampoline(mirror::ArtMethod *originMethod,
+                                                                       void *callback) {
+        AutoLock autoLock(installLock);
+
+        if (trampolines.count(originMethod) != 0)
+            return nullptr;
+        NativeCallbackTrampoline* nativeCallbackTrampoline = new NativeCallbackTrampoline();
+        nativeCallbackTrampoline->init();
+        Code nativeCallbackTrampolineSpace = allocExecuteSpace(nativeCallbackTrampoline->getCodeLen());
+        if (nativeCallbackTrampolineSpace == 0) {
+            LOGE("hook error due to can not alloc execute space!");
+            delete nativeCallbackTrampoline;
+            return nullptr;
+        }
+        nativeCallbackTrampoline->setExecuteSpace(nativeCallbackTrampolineSpace);
+        nativeCallbackTrampoline->setCallback(callback);
+        //origin code runs with origin method, same as call origin trampoline
+        nativeCallbackTrampoline->setOriginMethod(reinterpret_cast<Code>(originMethod));
+        nativeCallbackTrampoline->setOriginCode(getEntryCode(originMethod));
+        HookTrampoline* hookTrampoline = new HookTrampoline();
+        hookTrampoline->nativeCallback = nativeCallbackTrampoline;
+        hookTrampoline->originCode = getEntryCode(originMethod);
+        trampolines[originMethod] = hookTrampoline;
+        return hookTrampoline;
+    }
+
     HookTrampoline* TrampolineManager::installReplacementTrampoline(mirror::ArtMethod *originMethod,
                                                                     mirror::ArtMethod *hookMethod,
                                                                     mirror::ArtMethod *backupMethod) {
         AutoLock autoLock(installLock);
 
         if (trampolines.count(originMethod) != 0)
-            return getHookTrampoline(originMethod);
+            return findHookTrampoline(originMethod);
         HookTrampoline* hookTrampoline = new HookTrampoline();
         ReplacementHookTrampoline* replacementHookTrampoline = nullptr;
         CallOriginTrampoline* callOriginTrampoline = nullptr;
@@ -146,6 +216,14 @@ namespace SandHook {
         replacementHookTrampoline->setHookMethod(reinterpret_cast<Code>(hookMethod));
         hookTrampoline->replacement = replacementHookTrampoline;
         hookTrampoline->originCode = static_cast<Code>(originMethod->getQuickCodeEntry());
+        replacementHookTrampoline->setOriginCode(hookTrampoline->originCode);
+
+        if (countingHook) {
+            hookTrampoline->counting = installCountingTrampoline(hookMethod);
+            if (hookTrampoline->counting != nullptr) {
+                replacementHookTrampoline->setHookCodeEntryAddr(hookTrampoline->counting->getSelfEntryAddr());
+            }
+        }
 
         if (SWITCH_SETX0 && SDK_INT >= ANDROID_N && backupMethod != nullptr) {
             callOriginTrampoline = new CallOriginTrampoline();
@@ -164,10 +242,16 @@ namespace SandHook {
             hookTrampoline->callOrigin = callOriginTrampoline;
         }
 
+        hookTrampoline->hookMethod = hookMethod;
+        hookTrampoline->backupMethod = backupMethod;
         trampolines[originMethod] = hookTrampoline;
+        if (hooksDisabled) {
+            applyHookSwitch(originMethod, hookTrampoline);
+        }
         return hookTrampoline;
 
     label_error:
+        delete hookTrampoline->counting;
         delete hookTrampoline;
         delete replacementHookTrampoline;
         if (callOriginTrampoline != nullptr)
@@ -177,12 +261,13 @@ namespace SandHook {
 
     HookTrampoline* TrampolineManager::installInlineTrampoline(mirror::ArtMethod *originMethod,
                                                                mirror::ArtMethod *hookMethod,
-                                                               mirror::ArtMethod *backupMethod) {
+                                                               mirror::ArtMethod *backupMethod,
+                                                               Code entryCode) {
 
         AutoLock autoLock(installLock);
 
         if (trampolines.count(originMethod) != 0)
-            return getHookTrampoline(originMethod);
+            return findHookTrampoline(originMethod);
         HookTrampoline* hookTrampoline = new HookTrampoline();
         InlineHookTrampoline* inlineHookTrampoline = nullptr;
         DirectJumpTrampoline* directJumpTrampoline = nullptr;
@@ -191,14 +276,24 @@ namespace SandHook {
         Code callOriginTrampolineSpace;
         Code originEntry;
         Size sizeNeedBackup = SIZE_DIRECT_JUMP_TRAMPOLINE;
+        Code relocatedCode = nullptr;
         InstSizeNeedBackupVisitor instVisitor;
 
-        InstDecode::decode(originMethod->getQuickCodeEntry(), SIZE_DIRECT_JUMP_TRAMPOLINE, &instVisitor);
+        InstDecode::decode(entryCode, SIZE_DIRECT_JUMP_TRAMPOLINE, &instVisitor);
         sizeNeedBackup = instVisitor.instSize;
 
+        if (instVisitor.pcRelated || sizeNeedBackup > SIZE_ORIGIN_PLACE_HOLDER) {
+            relocatedCode = static_cast<Code>(relocateCode(entryCode, SIZE_DIRECT_JUMP_TRAMPOLINE));
+            if (relocatedCode == nullptr
+                && ((instVisitor.pcRelated && inlineSecurityCheck) || sizeNeedBackup > SIZE_ORIGIN_PLACE_HOLDER)) {
+                LOGE("hook error due to can not relocate origin insts!");
+                goto label_error;
+            }
+        }
+
         //生成二段跳板
         inlineHookTrampoline = new InlineHookTrampoline();
-        checkThumbCode(inlineHookTrampoline, getEntryCode(originMethod));
+        checkThumbCode(inlineHookTrampoline, entryCode);
         inlineHookTrampoline->init();
         inlineHookTrampolineSpace = allocExecuteSpace(inlineHookTrampoline->getCodeLen());
         if (inlineHookTrampolineSpace == 0) {
@@ -209,18 +304,26 @@ namespace SandHook {
         inlineHookTrampoline->setEntryCodeOffset(quickCompileOffset);
         inlineHookTrampoline->setOriginMethod(reinterpret_cast<Code>(originMethod));
         inlineHookTrampoline->setHookMethod(reinterpret_cast<Code>(hookMethod));
-        if (inlineHookTrampoline->isThumbCode()) {
-            inlineHookTrampoline->setOriginCode(inlineHookTrampoline->getThumbCodeAddress(getEntryCode(originMethod)), sizeNeedBackup);
+        if (relocatedCode != nullptr) {
+            inlineHookTrampoline->setOriginCodeJump(relocatedCode);
+        } else if (inlineHookTrampoline->isThumbCode()) {
+            inlineHookTrampoline->setOriginCode(inlineHookTrampoline->getThumbCodeAddress(entryCode), sizeNeedBackup);
         } else {
-            inlineHookTrampoline->setOriginCode(getEntryCode(originMethod), sizeNeedBackup);
+            inlineHookTrampoline->setOriginCode(entryCode, sizeNeedBackup);
         }
         hookTrampoline->inlineSecondory = inlineHookTrampoline;
 
-        //注入 EntryCode
+        if (countingHook) {
+            hookTrampoline->counting = installCountingTrampoline(hookMethod);
+            if (hookTrampoline->counting != nullptr) {
+                inlineHookTrampoline->setHookCodeEntryAddr(hookTrampoline->counting->getSelfEntryAddr());
+            }
+        }
+
         directJumpTrampoline = new DirectJumpTrampoline();
-        checkThumbCode(directJumpTrampoline, getEntryCode(originMethod));
+        checkThumbCode(directJumpTrampoline, entryCode);
         directJumpTrampoline->init();
-        originEntry = getEntryCode(originMethod);
+        originEntry = entryCode;
         if (!memUnprotect(reinterpret_cast<Size>(originEntry), directJumpTrampoline->getCodeLen())) {
             LOGE("hook error due to can not write origin code!");
             goto label_error;
@@ -230,18 +333,14 @@ namespace SandHook {
             originEntry = directJumpTrampoline->getThumbCodeAddress(originEntry);
         }
 
-        directJumpTrampoline->setExecuteSpace(originEntry);
-        directJumpTrampoline->setJumpTarget(inlineHookTrampoline->getCode());
-        hookTrampoline->inlineJump = directJumpTrampoline;
-
         //备份原始方法
         if (backupMethod != nullptr) {
             callOriginTrampoline = new CallOriginTrampoline();
-            checkThumbCode(callOriginTrampoline, getEntryCode(originMethod));
+            checkThumbCode(callOriginTrampoline, entryCode);
             callOriginTrampoline->init();
             callOriginTrampolineSpace = allocExecuteSpace(callOriginTrampoline->getCodeLen());
             if (callOriginTrampolineSpace == 0) {
-
+                LOGE("hook error due to can not alloc execute space!");
                 goto label_error;
             }
             callOriginTrampoline->setExecuteSpace(callOriginTrampolineSpace);
@@ -250,14 +349,16 @@ namespace SandHook {
             if (callOriginTrampoline->isThumbCode()) {
                 originCode = callOriginTrampoline->getThumbCodePcAddress(inlineHookTrampoline->getCallOriginCode());
                 #if defined(__arm__)
+                if (relocatedCode == nullptr) {
                 Code originRemCode = callOriginTrampoline->getThumbCodePcAddress(originEntry + sizeNeedBackup);
-                Size offset = originRemCode - getEntryCode(originMethod);
+                Size offset = originRemCode - entryCode;
                 if (offset != directJumpTrampoline->getCodeLen()) {
                     Code32Bit offset32;
                     offset32.code = offset;
                     uint8_t offsetOP = callOriginTrampoline->isBigEnd() ? offset32.op.op4 : offset32.op.op1;
                     inlineHookTrampoline->tweakOpImm(OFFSET_INLINE_OP_ORIGIN_OFFSET_CODE, offsetOP);
                 }
+                }
                 #endif
             } else {
                 originCode = inlineHookTrampoline->getCallOriginCode();
@@ -265,11 +366,27 @@ namespace SandHook {
             callOriginTrampoline->setOriginCode(originCode);
             hookTrampoline->callOrigin = callOriginTrampoline;
         }
+        //注入 EntryCode
+        //all trampolines are ready, nothing can fail once origin is patched
+        memcpy(hookTrampoline->originInsts, originEntry, directJumpTrampoline->getCodeLen());
+        directJumpTrampoline->setExecuteSpace(originEntry);
+        directJumpTrampoline->setJumpTarget(inlineHookTrampoline->getCode());
+        hookTrampoline->inlineJump = directJumpTrampoline;
+
+        hookTrampoline->hookMethod = hookMethod;
+        hookTrampoline->backupMethod = backupMethod;
         trampolines[originMethod] = hookTrampoline;
+        if (hooksDisabled) {
+            applyHookSwitch(originMethod, hookTrampoline);
+        }
         return hookTrampoline;
 
     label_error:
+        delete hookTrampoline->counting;
         delete hookTrampoline;
+        if (relocatedCode != nullptr) {
+            freeRelocatedCode(relocatedCode, SIZE_DIRECT_JUMP_TRAMPOLINE);
+        }
         if (inlineHookTrampoline != nullptr) {
             delete inlineHookTrampoline;
         }
@@ -282,6 +399,31 @@ namespace SandHook {
         return nullptr;
     }
 
+    bool TrampolineManager::uninstallHookTrampoline(mirror::ArtMethod *originMethod) {
+        AutoLock autoLock(installLock);
+
+        auto it = trampolines.find(originMethod);
+        if (it == trampolines.end())
+            return false;
+        HookTrampoline* hookTrampoline = it->second;
+        if (hookTrampoline->inlineJump != nullptr) {
+            //patched code is the entry of origin, can not be collected
+            Trampoline* inlineJump = hookTrampoline->inlineJump;
+            memcpy(inlineJump->code, hookTrampoline->originInsts, inlineJump->getCodeLen());
+            Trampoline::flushCache(reinterpret_cast<Size>(inlineJump->code), inlineJump->getCodeLen());
+        } else if (hookTrampoline->originCode != nullptr) {
+            //origin code from install time may have been freed by jit gc, jit compiles origin again once hot
+            originMethod->publishQuickCodeEntry(originMethod->getStableEntry(hookTrampoline->originCode));
+        } else {
+            return false;
+        }
+        originMethod->restoreHookFlags(hookTrampoline->originAccessFlags);
+        originMethod->flushCache();
+        trampolines.erase(it);
+        delete hookTrampoline;
+        return true;
+    }
+
     HookTrampoline* TrampolineManager::installNativeHookTrampolineNoBackup(void *origin,
                                                                            void *hook) { HookTrampoline* hookTrampoline = new HookTrampoline();
         DirectJumpTrampoline* directJumpTrampoline = new DirectJumpTrampoline();
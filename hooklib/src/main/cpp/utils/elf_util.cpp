@@ -7,8 +7,17 @@
 #include <fcntl.h>
 #include <unistd.h>
 #include <assert.h>
+#include <dlfcn.h>
+#include <link.h>
+#include <map>
+#include <string>
 #include "../includes/elf_util.h"
 #include "../includes/log.h"
+#include "lock.h"
+
+#ifndef DT_GNU_HASH
+#define DT_GNU_HASH 0x6ffffef5
+#endif
 
 using namespace SandHook;
 
@@ -169,3 +178,130 @@ void *ElfImg::getModuleBase(const char *name) {
 
     return reinterpret_cast<void *>(load_addr);
 }
+
+LoadedElf::LoadedElf(Elf_Addr bias, const Elf_Phdr *phdr, int phnum) : bias(bias) {
+    const Elf_Dyn* dynamic = nullptr;
+    for (int i = 0; i < phnum; i++) {
+        if (phdr[i].p_type == PT_DYNAMIC) {
+            dynamic = reinterpret_cast<const Elf_Dyn *>(bias + phdr[i].p_vaddr);
+            break;
+        }
+    }
+    if (dynamic == nullptr)
+        return;
+    //bionic keeps d_ptr unrelocated
+    for (const Elf_Dyn* dyn = dynamic; dyn->d_tag != DT_NULL; dyn++) {
+        switch (dyn->d_tag) {
+            case DT_SYMTAB:
+                symtab = reinterpret_cast<const Elf_Sym *>(bias + dyn->d_un.d_ptr);
+                break;
+            case DT_STRTAB:
+                strtab = reinterpret_cast<const char *>(bias + dyn->d_un.d_ptr);
+                break;
+            case DT_GNU_HASH:
+                gnuHash = reinterpret_cast<const Elf_Word *>(bias + dyn->d_un.d_ptr);
+                break;
+            case DT_HASH:
+                sysvHash = reinterpret_cast<const Elf_Word *>(bias + dyn->d_un.d_ptr);
+                break;
+        }
+    }
+}
+
+void *LoadedElf::findSymbol(const char *name) const {
+    if (symtab == nullptr || strtab == nullptr)
+        return nullptr;
+    if (gnuHash != nullptr)
+        return findGnuHash(name);
+    if (sysvHash != nullptr)
+        return findSysvHash(name);
+    return nullptr;
+}
+
+void *LoadedElf::symbolAddress(const Elf_Sym *sym) const {
+    if (sym->st_shndx == SHN_UNDEF || sym->st_value == 0)
+        return nullptr;
+    return reinterpret_cast<void *>(bias + sym->st_value);
+}
+
+void *LoadedElf::findGnuHash(const char *name) const {
+    uint32_t hash = 5381;
+    for (const unsigned char* c = reinterpret_cast<const unsigned char *>(name); *c; c++) {
+        hash = hash * 33 + *c;
+    }
+    uint32_t bucketCount = gnuHash[0];
+    uint32_t symOffset = gnuHash[1];
+    uint32_t bloomSize = gnuHash[2];
+    const Elf_Word* buckets = reinterpret_cast<const Elf_Word *>(
+            reinterpret_cast<const Elf_Addr *>(gnuHash + 4) + bloomSize);
+    const Elf_Word* chains = buckets + bucketCount;
+    uint32_t index = buckets[hash % bucketCount];
+    if (index < symOffset)
+        return nullptr;
+    while (true) {
+        uint32_t chainHash = chains[index - symOffset];
+        if ((hash | 1) == (chainHash | 1) && strcmp(strtab + symtab[index].st_name, name) == 0)
+            return symbolAddress(&symtab[index]);
+        //last of chain
+        if (chainHash & 1)
+            return nullptr;
+        index++;
+    }
+}
+
+void *LoadedElf::findSysvHash(const char *name) const {
+    uint32_t hash = 0;
+    for (const unsigned char* c = reinterpret_cast<const unsigned char *>(name); *c; c++) {
+        hash = (hash << 4) + *c;
+        uint32_t high = hash & 0xf0000000;
+        hash ^= high;
+        hash ^= high >> 24;
+    }
+    uint32_t bucketCount = sysvHash[0];
+    const Elf_Word* buckets = sysvHash + 2;
+    const Elf_Word* chains = buckets + bucketCount;
+    for (uint32_t index = buckets[hash % bucketCount]; index != 0; index = chains[index]) {
+        if (strcmp(strtab + symtab[index].st_name, name) == 0)
+            return symbolAddress(&symtab[index]);
+    }
+    return nullptr;
+}
+
+//[load bias, name] -> parsed library, a library reloaded at another address is parsed again
+static std::map<std::pair<Elf_Addr, std::string>, LoadedElf*> loadedElfs;
+static std::mutex loadedElfsLock;
+
+struct SymbolSearch {
+    const char* name;
+    void* result;
+};
+
+static int searchLoadedElf(struct dl_phdr_info* info, size_t size, void* data) {
+    SymbolSearch* search = reinterpret_cast<SymbolSearch *>(data);
+    if (info->dlpi_name == nullptr || info->dlpi_phdr == nullptr)
+        return 0;
+    auto key = std::make_pair(static_cast<Elf_Addr>(info->dlpi_addr), std::string(info->dlpi_name));
+    LoadedElf* elf;
+    auto it = loadedElfs.find(key);
+    if (it == loadedElfs.end()) {
+        elf = new LoadedElf(info->dlpi_addr, reinterpret_cast<const Elf_Phdr *>(info->dlpi_phdr), info->dlpi_phnum);
+        loadedElfs[key] = elf;
+    } else {
+        elf = it->second;
+    }
+    search->result = elf->findSymbol(search->name);
+    //stop iterating when found
+    return search->result != nullptr ? 1 : 0;
+}
+
+void *SandHook::findLoadedSymbol(const char *name) {
+    //api 21+ for arm, libraries are iterated under the lock of linker so none is unloaded meanwhile
+    static auto iteratePhdr = reinterpret_cast<int (*)(int (*)(struct dl_phdr_info*, size_t, void*), void*)>(
+            dlsym(RTLD_DEFAULT, "dl_iterate_phdr"));
+    if (iteratePhdr == nullptr)
+        return nullptr;
+    SymbolSearch search = {name, nullptr};
+    AutoLock autoLock(loadedElfsLock);
+    iteratePhdr(searchLoadedElf, &search);
+    return search.result;
+}
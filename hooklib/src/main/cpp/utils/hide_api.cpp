@@ -8,6 +8,10 @@
 #include "../includes/utils.h"
 #include "../includes/trampoline_manager.h"
 #include "../includes/art_runtime.h"
+#include <mutex>
+#include <thread>
+#include <chrono>
+#include <condition_variable>
 
 extern int SDK_INT;
 
@@ -22,6 +26,7 @@ extern "C" {
     void (*innerResumeVM)() = nullptr;
 
     jobject (*addWeakGlobalRef)(JavaVM *, void *, void *) = nullptr;
+    jobject (*newLocalRef)(JNIEnv *, void *) = nullptr;
 
     art::jit::JitCompiler** globalJitCompileHandlerAddr = nullptr;
 
@@ -29,6 +34,15 @@ extern "C" {
     void (**origin_jit_update_options)(void *) = nullptr;
 
     void (*profileSaver_ForceProcessProfiles)() = nullptr;
+    bool (*profileSaver_IsStarted)() = nullptr;
+
+    //coalesce profile processing of a batch of hooks
+    std::mutex profileLock;
+    std::condition_variable profileCond;
+    bool profilePending = false;
+    bool profileWorkerStarted = false;
+    std::chrono::steady_clock::time_point lastProfileRequest;
+    const std::chrono::milliseconds PROFILE_QUIET_PERIOD(500);
 
     //for Android R
     void *jniIdManager = nullptr;
@@ -53,6 +67,8 @@ extern "C" {
     JavaVM* jvm;
 
     void *(*hook_native)(void* origin, void *replace) = nullptr;
+    void *(*relocate_code)(void* origin, size_t len) = nullptr;
+    void (*free_relocated_code)(void* code, size_t len) = nullptr;
 
     void (*class_init_callback)(void*) = nullptr;
 
@@ -62,10 +78,22 @@ extern "C" {
 
     void (*backup_update_methods_code)(void *, ArtMethod *, const void *) = nullptr;
 
+    bool (*code_update_callback)(ArtMethod *, const void *) = nullptr;
+
     void* (*make_initialized_classes_visibly_initialized_)(void*, void*, bool) = nullptr;
 
     void* runtime_instance_ = nullptr;
 
+    //args after resolved method differ between versions, forward them as words
+    bool (*backup_try_build_and_inline)(void *, void *, ArtMethod *, void *, void *, void *) = nullptr;
+
+    bool replaceTryBuildAndInline(void *thiz, void *invoke, ArtMethod *method, void *arg3, void *arg4, void *arg5) {
+        if (method != nullptr && SandHook::TrampolineManager::get().methodHooked(method)) {
+            return false;
+        }
+        return backup_try_build_and_inline(thiz, invoke, method, arg3, arg4, arg5);
+    }
+
     void initHideApi(JNIEnv* env) {
 
         env->GetJavaVM(&jvm);
@@ -114,12 +142,6 @@ extern "C" {
                 jitCompilerHandle = getGlobalJitCompiler();
             }
 
-            if (jitCompilerHandle != nullptr) {
-                art::CompilerOptions* compilerOptions = getCompilerOptions(
-                        reinterpret_cast<art::jit::JitCompiler *>(jitCompilerHandle));
-                disableJitInline(compilerOptions);
-            }
-
         }
 
 
@@ -145,21 +167,39 @@ extern "C" {
         addWeakGlobalRef = reinterpret_cast<jobject (*)(JavaVM *, void *,
                                                    void *)>(getSymCompat(art_lib_path, add_weak_ref_sym));
 
+        //decode to local ref directly, no weak global ref
+        newLocalRef = reinterpret_cast<jobject (*)(JNIEnv *, void *)>(getSymCompat(art_lib_path,
+                                                                                   "_ZN3art9JNIEnvExt11NewLocalRefEPNS_6mirror6ObjectE"));
+
         if (SDK_INT >= ANDROID_Q) {
             origin_jit_update_options = reinterpret_cast<void (**)(void *)>(getSymCompat(art_lib_path, "_ZN3art3jit3Jit20jit_update_options_E"));
         }
 
         if (SDK_INT > ANDROID_N) {
             profileSaver_ForceProcessProfiles = reinterpret_cast<void (*)()>(getSymCompat(art_lib_path, "_ZN3art12ProfileSaver20ForceProcessProfilesEv"));
+            profileSaver_IsStarted = reinterpret_cast<bool (*)()>(getSymCompat(art_lib_path, "_ZN3art12ProfileSaver9IsStartedEv"));
         }
 
         //init native hook lib
         void* native_hook_handle = dlopen("libsandhook-native.so", RTLD_LAZY | RTLD_GLOBAL);
         if (native_hook_handle) {
             hook_native = reinterpret_cast<void *(*)(void *, void *)>(dlsym(native_hook_handle, "SandInlineHook"));
+            relocate_code = reinterpret_cast<void *(*)(void *, size_t)>(dlsym(native_hook_handle, "SandRelocateCode"));
+            free_relocated_code = reinterpret_cast<void (*)(void *, size_t)>(dlsym(native_hook_handle, "SandFreeRelocatedCode"));
         } else {
             hook_native = reinterpret_cast<void *(*)(void *, void *)>(getSymCompat(
                     "libsandhook-native.so", "SandInlineHook"));
+            relocate_code = reinterpret_cast<void *(*)(void *, size_t)>(getSymCompat(
+                    "libsandhook-native.so", "SandRelocateCode"));
+            free_relocated_code = reinterpret_cast<void (*)(void *, size_t)>(getSymCompat(
+                    "libsandhook-native.so", "SandFreeRelocatedCode"));
+        }
+
+        //reject hooked callees only, disable jit inline globally if inliner can not be hooked
+        if (SDK_INT >= ANDROID_N && jitCompilerHandle != nullptr && !hookJitInliner()) {
+            art::CompilerOptions* compilerOptions = getCompilerOptions(
+                    reinterpret_cast<art::jit::JitCompiler *>(jitCompilerHandle));
+            disableJitInline(compilerOptions);
         }
 
         if (SDK_INT >= ANDROID_R && hook_native) {
@@ -184,6 +224,22 @@ extern "C" {
         runtime_instance_ = *reinterpret_cast<void**>(getSymCompat(art_lib_path, "_ZN3art7Runtime9instance_E"));
     }
 
+    bool canRelocateCode() {
+        return relocate_code != nullptr;
+    }
+
+    void* relocateCode(void* origin, Size len) {
+        if (relocate_code == nullptr)
+            return nullptr;
+        return relocate_code(origin, len);
+    }
+
+    void freeRelocatedCode(void* code, Size len) {
+        if (free_relocated_code == nullptr || code == nullptr)
+            return;
+        free_relocated_code(code, len);
+    }
+
     bool canCompile() {
         if (SDK_INT >= ANDROID_R)
             return false;
@@ -254,6 +310,23 @@ extern "C" {
         return result;
     }
 
+    int getJavaObjects(JNIEnv* env, void* thread, Size* addresses, jobject* objects, int count) {
+        int decoded = 0;
+        for (int i = 0; i < count; i++) {
+            if (addresses[i] == 0) {
+                objects[i] = nullptr;
+            } else if (newLocalRef != nullptr) {
+                objects[i] = newLocalRef(env, reinterpret_cast<void *>(addresses[i]));
+            } else {
+                objects[i] = getJavaObject(env, thread, reinterpret_cast<void *>(addresses[i]));
+            }
+            if (objects[i] != nullptr) {
+                decoded++;
+            }
+        }
+        return decoded;
+    }
+
     art::jit::JitCompiler* getGlobalJitCompiler() {
         if (SDK_INT < ANDROID_N)
             return nullptr;
@@ -318,6 +391,64 @@ extern "C" {
         return true;
     }
 
+    static bool profileSaverStarted() {
+        //unknown, treat as started
+        if (profileSaver_IsStarted == nullptr)
+            return true;
+        return profileSaver_IsStarted();
+    }
+
+    static void profileWorker() {
+        //profile saver need an attached thread, daemon so it never blocks vm shutdown
+        JNIEnv* env;
+        JavaVMAttachArgs args = {JNI_VERSION_1_6, const_cast<char *>("SandHook-Profile"), nullptr};
+        if (jvm->AttachCurrentThreadAsDaemon(&env, &args) != JNI_OK) {
+            std::lock_guard<std::mutex> lock(profileLock);
+            profileWorkerStarted = false;
+            return;
+        }
+        std::unique_lock<std::mutex> lock(profileLock);
+        while (true) {
+            profileCond.wait(lock, [] { return profilePending; });
+            //wait until no more hooks in quiet period
+            while (profilePending) {
+                auto deadline = lastProfileRequest + PROFILE_QUIET_PERIOD;
+                if (std::chrono::steady_clock::now() >= deadline)
+                    break;
+                profileCond.wait_until(lock, deadline);
+            }
+            if (!profilePending)
+                continue;
+            profilePending = false;
+            lock.unlock();
+            forceProcessProfiles();
+            lock.lock();
+        }
+    }
+
+    void requestProcessProfiles() {
+        if (profileSaver_ForceProcessProfiles == nullptr || !profileSaverStarted())
+            return;
+        std::lock_guard<std::mutex> lock(profileLock);
+        profilePending = true;
+        lastProfileRequest = std::chrono::steady_clock::now();
+        if (!profileWorkerStarted) {
+            std::thread(profileWorker).detach();
+            profileWorkerStarted = true;
+        }
+        profileCond.notify_all();
+    }
+
+    bool flushProfiles() {
+        {
+            std::lock_guard<std::mutex> lock(profileLock);
+            if (!profilePending)
+                return false;
+            profilePending = false;
+        }
+        return forceProcessProfiles();
+    }
+
     void replaceFixupStaticTrampolines(void *thiz, void *clazz_ptr) {
         backup_fixup_static_trampolines(thiz, clazz_ptr);
         if (class_init_callback) {
@@ -335,11 +466,35 @@ extern "C" {
 
     void replaceUpdateMethodsCode(void *thiz, ArtMethod * artMethod, const void *quick_code) {
         if (SandHook::TrampolineManager::get().methodHooked(artMethod)) {
-            return; //skip
+            //new code of inline hooked method can be patched before published
+            if (code_update_callback == nullptr || !code_update_callback(artMethod, quick_code))
+                return; //skip
         }
         backup_update_methods_code(thiz, artMethod, quick_code);
     }
 
+    static bool hookUpdateMethodsCode() {
+        if (backup_update_methods_code != nullptr)
+            return true;
+        if (hook_native == nullptr)
+            return false;
+        void *symUpdateMethodsCode = getSymCompat(art_lib_path, SDK_INT >= ANDROID_R
+                ? "_ZN3art15instrumentation15Instrumentation21UpdateMethodsCodeImplEPNS_9ArtMethodEPKv"
+                : "_ZN3art15instrumentation15Instrumentation17UpdateMethodsCodeEPNS_9ArtMethodEPKv");
+        if (symUpdateMethodsCode == nullptr)
+            return false;
+        backup_update_methods_code = reinterpret_cast<void (*)(void *, ArtMethod *, const void*)>(hook_native(
+                symUpdateMethodsCode, (void *) replaceUpdateMethodsCode));
+        return backup_update_methods_code != nullptr;
+    }
+
+    bool hookMethodsCodeUpdate(bool(*callback)(ArtMethod*, const void*)) {
+        if (SDK_INT < ANDROID_N || !hookUpdateMethodsCode())
+            return false;
+        code_update_callback = callback;
+        return true;
+    }
+
     void MakeInitializedClassVisibilyInitialized(void* self){
         if(make_initialized_classes_visibly_initialized_) {
 #ifdef __LP64__
@@ -360,17 +515,12 @@ extern "C" {
             if (symMarkClassInitialized == nullptr || hook_native == nullptr)
                 return false;
 
-            void *symUpdateMethodsCode = getSymCompat(art_lib_path,
-                                                         "_ZN3art15instrumentation15Instrumentation21UpdateMethodsCodeImplEPNS_9ArtMethodEPKv");
-            if (symUpdateMethodsCode == nullptr || hook_native == nullptr)
+            if (!hookUpdateMethodsCode())
                 return false;
 
             backup_mark_class_initialized = reinterpret_cast<void *(*)(void *, void *, uint32_t*)>(hook_native(
                     symMarkClassInitialized, (void *) replaceMarkClassInitialized));
 
-            backup_update_methods_code = reinterpret_cast<void (*)(void *, ArtMethod *, const void*)>(hook_native(
-                    symUpdateMethodsCode, (void *) replaceUpdateMethodsCode));
-
             make_initialized_classes_visibly_initialized_ = reinterpret_cast<void* (*)(void*, void*, bool)>(
                     getSymCompat(art_lib_path, "_ZN3art11ClassLinker40MakeInitializedClassesVisiblyInitializedEPNS_6ThreadEb"));
 
@@ -403,6 +553,37 @@ extern "C" {
         }
     }
 
+    bool hookJitInliner() {
+        if (backup_try_build_and_inline != nullptr)
+            return true;
+        if (hook_native == nullptr)
+            return false;
+        //8.0 - 11.0
+        void *symTryBuildAndInline = getSymCompat(jit_lib_path,
+                                                  "_ZN3art8HInliner17TryBuildAndInlineEPNS_7HInvokeEPNS_9ArtMethodENS_17ReferenceTypeInfoEPPNS_12HInstructionE");
+        if (symTryBuildAndInline == nullptr) {
+            //7.x
+            symTryBuildAndInline = getSymCompat(jit_lib_path,
+                                                "_ZN3art8HInliner17TryBuildAndInlineEPNS_7HInvokeEPNS_9ArtMethodEPPNS_12HInstructionE");
+        }
+        if (symTryBuildAndInline == nullptr)
+            return false;
+        backup_try_build_and_inline = reinterpret_cast<bool (*)(void *, void *, ArtMethod *, void *, void *, void *)>(hook_native(
+                symTryBuildAndInline, (void *) replaceTryBuildAndInline));
+        return backup_try_build_and_inline != nullptr;
+    }
+
+    bool isJniDlsymLookupStub(void *entry) {
+        static void* lookupStub = getSymCompat(art_lib_path, "art_jni_dlsym_lookup_stub");
+        //@CriticalNative of 11.0+
+        static void* lookupCriticalStub = getSymCompat(art_lib_path, "art_jni_dlsym_lookup_critical_stub");
+        return entry != nullptr && (entry == lookupStub || entry == lookupCriticalStub);
+    }
+
+    bool isJitInlinerHooked() {
+        return backup_try_build_and_inline != nullptr;
+    }
+
     JNIEnv *getEnv() {
         JNIEnv *env;
         jvm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6);
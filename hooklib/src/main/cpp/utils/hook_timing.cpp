@@ -0,0 +1,129 @@
+#include <map>
+#include <cstring>
+#include <time.h>
+#include <dlfcn.h>
+#include "../includes/hook_timing.h"
+
+namespace SandHook {
+
+    struct PhaseTimes {
+        int64_t times[PHASE_COUNT] = {0};
+    };
+
+    static std::mutex timingLock;
+    static std::map<void*, PhaseTimes> hookTimes;
+    static PhaseTimes globalTimes;
+
+    static thread_local ScopedPhase* currentPhase = nullptr;
+
+    static const char* traceNames[PHASE_COUNT] = {
+            "SandHook:resolve",
+            "SandHook:prepareStub",
+            "SandHook:suspend",
+            "SandHook:compile",
+            "SandHook:patch",
+            "SandHook:resume"
+    };
+
+    struct TraceApi {
+        void (*beginSection)(const char*) = nullptr;
+        void (*endSection)() = nullptr;
+
+        TraceApi() {
+            //api 23+
+            void* handle = dlopen("libandroid.so", RTLD_NOW);
+            if (handle == nullptr)
+                return;
+            beginSection = reinterpret_cast<void (*)(const char *)>(dlsym(handle, "ATrace_beginSection"));
+            endSection = reinterpret_cast<void (*)()>(dlsym(handle, "ATrace_endSection"));
+            if (beginSection == nullptr || endSection == nullptr) {
+                beginSection = nullptr;
+                endSection = nullptr;
+            }
+        }
+    };
+
+    //function local static is initialized once even if hooks are installed by many threads
+    static const TraceApi& traceApi() {
+        static TraceApi api;
+        return api;
+    }
+
+    int64_t HookTiming::now() {
+        struct timespec ts;
+        clock_gettime(CLOCK_MONOTONIC, &ts);
+        return static_cast<int64_t>(ts.tv_sec) * 1000000000LL + ts.tv_nsec;
+    }
+
+    void HookTiming::record(void *key, HookPhase phase, int64_t nanos) {
+        if (phase < 0 || phase >= PHASE_COUNT)
+            return;
+        AutoLock autoLock(timingLock);
+        globalTimes.times[phase] += nanos;
+        if (key != nullptr) {
+            hookTimes[key].times[phase] += nanos;
+        }
+    }
+
+    bool HookTiming::getTimes(void *key, int64_t *times) {
+        AutoLock autoLock(timingLock);
+        auto it = hookTimes.find(key);
+        if (it == hookTimes.end())
+            return false;
+        memcpy(times, it->second.times, sizeof(int64_t) * PHASE_COUNT);
+        return true;
+    }
+
+    void HookTiming::getGlobalTimes(int64_t *times) {
+        AutoLock autoLock(timingLock);
+        memcpy(times, globalTimes.times, sizeof(int64_t) * PHASE_COUNT);
+    }
+
+    void HookTiming::traceBegin(HookPhase phase) {
+        const TraceApi& api = traceApi();
+        if (api.beginSection != nullptr) {
+            api.beginSection(traceNames[phase]);
+        }
+    }
+
+    void HookTiming::traceEnd() {
+        const TraceApi& api = traceApi();
+        if (api.endSection != nullptr) {
+            api.endSection();
+        }
+    }
+
+    ScopedPhase::ScopedPhase(HookPhase phase, void *key) : phase(phase), key(key) {
+        outer = currentPhase;
+        if (this->key == nullptr && outer != nullptr) {
+            this->key = outer->key;
+        }
+        start = HookTiming::now();
+        if (outer != nullptr) {
+            outer->pause(start);
+        }
+        currentPhase = this;
+        HookTiming::traceBegin(phase);
+    }
+
+    ScopedPhase::~ScopedPhase() {
+        HookTiming::traceEnd();
+        int64_t end = HookTiming::now();
+        pause(end);
+        HookTiming::record(key, phase, elapsed);
+        currentPhase = outer;
+        if (outer != nullptr) {
+            outer->resume(end);
+        }
+    }
+
+    void ScopedPhase::pause(int64_t time) {
+        elapsed += time - start;
+        start = time;
+    }
+
+    void ScopedPhase::resume(int64_t time) {
+        start = time;
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.swift.sandhook;
+
+import com.swift.sandhook.annotation.HookMode;
+import com.swift.sandhook.wrapper.HookWrapper;
+
+import java.lang.reflect.Member;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Compile hook & backup methods out of the hooking thread
+// Hooks are installed with replacement first, then upgraded in place
+public class BackgroundCompiler {
+
+    private static ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SandHook-Compiler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public static void enqueue(final HookWrapper.HookEntity entity, final int mode) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compile(entity, mode);
+                } catch (Throwable throwable) {
+                    HookLog.e("background compile error: " + entity.target.toString(), throwable);
+                }
+            }
+        });
+    }
+
+    //warm up methods which are not hooked yet, e.g. stub hookers
+    public static void enqueue(final Member[] methods) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int compiled = SandHook.compileMethods(methods);
+                    HookLog.d("background compiled " + compiled + "/" + methods.length + " methods");
+                } catch (Throwable throwable) {
+                    HookLog.e("background compile error", throwable);
+                }
+            }
+        });
+    }
+
+    private static void compile(HookWrapper.HookEntity entity, int mode) {
+        //jit without holding hook lock
+        SandHook.compileMethods(new Member[] {entity.hook});
+        int res = SandHook.upgradeHook(entity, mode);
+        if (res < 0)
+            return;
+        entity.hookMode = res;
+        if (res == HookMode.REPLACE && entity.backup != null) {
+            //backup is a copy of origin in replacement mode, jit without stopping the world
+            SandHook.compileMethods(new Member[] {entity.backup});
+        }
+        HookLog.d("method <" + entity.target.toString() + "> upgrade to <" + (res == HookMode.INLINE ? "inline" : "replacement") + ">");
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.swift.sandhook;
+
+import android.os.Trace;
+
+import java.lang.reflect.Member;
+
+// Cost of each hook install phase, in nanos
+// Native phases are recorded by hookMethod, java phases by begin/end here
+public class HookTiming {
+
+    //same order as native HookPhase
+    public final static int PHASE_RESOLVE = 0;
+    public final static int PHASE_PREPARE_STUB = 1;
+    public final static int PHASE_SUSPEND = 2;
+    public final static int PHASE_COMPILE = 3;
+    public final static int PHASE_PATCH = 4;
+    public final static int PHASE_RESUME = 5;
+    public final static int PHASE_COUNT = 6;
+
+    public final static String[] PHASE_NAMES = {
+            "SandHook:resolve",
+            "SandHook:prepareStub",
+            "SandHook:suspend",
+            "SandHook:compile",
+            "SandHook:patch",
+            "SandHook:resume"
+    };
+
+    public static long begin(int phase) {
+        Trace.beginSection(PHASE_NAMES[phase]);
+        return System.nanoTime();
+    }
+
+    public static void end(Member target, int phase, long start) {
+        long cost = System.nanoTime() - start;
+        Trace.endSection();
+        SandHook.addHookPhaseTime(target, phase, cost);
+    }
+
+    //null if target not hooked
+    public static long[] getPhaseTimes(Member target) {
+        return SandHook.getHookPhaseTimes(target);
+    }
+
+    public static long[] getGlobalPhaseTimes() {
+        return SandHook.getGlobalHookPhaseTimes();
+    }
+
+}
@@ -5,7 +5,9 @@ import android.os.Build;
 import com.swift.sandhook.annotation.HookMode;
 import com.swift.sandhook.blacklist.HookBlackList;
 import com.swift.sandhook.utils.ClassStatusUtils;
+import com.swift.sandhook.utils.DexCallerScanner;
 import com.swift.sandhook.utils.FileUtils;
+import com.swift.sandhook.utils.ProfileFilter;
 import com.swift.sandhook.utils.ReflectionUtils;
 import com.swift.sandhook.utils.Unsafe;
 import com.swift.sandhook.wrapper.HookErrorException;
@@ -17,7 +19,10 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class SandHook {
@@ -45,6 +50,19 @@ public class SandHook {
 
     public static int testAccessFlag;
 
+    //native peer never changes during the lifetime of a thread
+    private static final ThreadLocal<Long> threadPeer = new ThreadLocal<Long>() {
+        @Override
+        protected Long initialValue() {
+            return readThreadPeer();
+        }
+    };
+
+    private static boolean backgroundCompile = false;
+    private static boolean compileBeforeSuspend = false;
+    //max inline depth of dex2oat
+    private static final int PROFILE_INLINE_DEPTH = 3;
+
     static {
         SandHookConfig.libLoader.loadLib();
         init();
@@ -95,16 +113,24 @@ public class SandHook {
         if (SandHookConfig.delayHook && PendingHookHandler.canWork() && ClassStatusUtils.isStaticAndNoInited(entity.target)) {
             PendingHookHandler.addPendingHook(entity);
             return;
-        } else if (entity.initClass) {
-            resolveStaticMethod(target);
-            MakeInitializedClassVisibilyInitialized(getThreadId());
         }
 
-        resolveStaticMethod(backup);
+        long resolveStart = HookTiming.begin(HookTiming.PHASE_RESOLVE);
+        try {
+            if (entity.initClass) {
+                resolveStaticMethod(target);
+                MakeInitializedClassVisibilyInitialized(getThreadId());
+            }
 
-        if (backup != null && entity.resolveDexCache) {
-            SandHookMethodResolver.resolveMethod(hook, backup);
+            resolveStaticMethod(backup);
+
+            if (backup != null && entity.resolveDexCache) {
+                SandHookMethodResolver.resolveMethod(hook, backup);
+            }
+        } finally {
+            HookTiming.end(target, HookTiming.PHASE_RESOLVE, resolveStart);
         }
+
         if (target instanceof Method) {
             ((Method)target).setAccessible(true);
         }
@@ -116,13 +142,21 @@ public class SandHook {
 
         globalHookEntityMap.put(entity.target, entity);
 
-        int res;
-        if (mode != HookMode.AUTO) {
-            res = hookMethod(target, hook, backup, mode);
-        } else {
+        if (backgroundCompile != SandHookConfig.backgroundCompile) {
+            backgroundCompile = SandHookConfig.backgroundCompile;
+            setBackgroundCompile(backgroundCompile);
+        }
+
+        if (compileBeforeSuspend != SandHookConfig.compileBeforeSuspend) {
+            compileBeforeSuspend = SandHookConfig.compileBeforeSuspend;
+            setCompileBeforeSuspend(compileBeforeSuspend);
+        }
+
+        if (mode == HookMode.AUTO) {
             HookMode hookMode = hook.getAnnotation(HookMode.class);
-            res = hookMethod(target, hook, backup, hookMode == null ? HookMode.AUTO : hookMode.value());
+            mode = hookMode == null ? HookMode.AUTO : hookMode.value();
         }
+        int res = hookMethod(target, hook, backup, mode);
 
         if (res > 0 && backup != null) {
             backup.setAccessible(true);
@@ -144,6 +178,32 @@ public class SandHook {
         }
 
         HookLog.d("method <" + entity.target.toString() + "> hook <" + (res == HookMode.INLINE ? "inline" : "replacement") + "> success!");
+
+        if (backgroundCompile) {
+            BackgroundCompiler.enqueue(entity, mode);
+        }
+    }
+
+    //restore origin method, 7.0+
+    //hook & backup methods are free to be used by other hooks after success
+    public static synchronized boolean unhook(Member target) {
+        HookWrapper.HookEntity entity = globalHookEntityMap.get(target);
+        if (entity == null)
+            return false;
+        if (!unhookMethod(target))
+            return false;
+        globalHookEntityMap.remove(target);
+        if (entity.backup != null) {
+            globalBackupMap.remove(entity.backup);
+        }
+        HookLog.d("method <" + target.toString() + "> unhooked");
+        return true;
+    }
+
+    static synchronized int upgradeHook(HookWrapper.HookEntity entity, int mode) {
+        if (globalHookEntityMap.get(entity.target) != entity)
+            return -1;
+        return upgradeHook(entity.target, entity.hook, entity.backup, mode);
     }
 
     public final static Object callOriginMethod(Member originMethod, Object thiz, Object... args) throws Throwable {
@@ -165,7 +225,7 @@ public class SandHook {
     }
 
     public final static Object callOriginMethod(boolean backupIsStub, Member originMethod, Method backupMethod, Object thiz, Object[] args) throws Throwable {
-        //reset declaring class
+        //reset declaring class, per call as a fixup after gc runs when mutators may already see the moved class
         if (!backupIsStub && SandHookConfig.SDK_INT >= Build.VERSION_CODES.N) {
             //holder in stack to avoid moving gc
             Class originClassHolder = originMethod.getDeclaringClass();
@@ -320,8 +380,12 @@ public class SandHook {
     }
 
     public static long getThreadId() {
+        return threadPeer.get();
+    }
+
+    private static long readThreadPeer() {
         if (nativePeerField == null)
-            return 0;
+            return getCurrentThreadPeer();
         try {
             if (nativePeerField.getType() == int.class) {
                 return nativePeerField.getInt(Thread.currentThread());
@@ -329,7 +393,7 @@ public class SandHook {
                 return nativePeerField.getLong(Thread.currentThread());
             }
         } catch (IllegalAccessException e) {
-            return 0;
+            return getCurrentThreadPeer();
         }
     }
 
@@ -375,6 +439,107 @@ public class SandHook {
         }
     }
 
+    //deoptimize compiled methods of apk which may inline hooked methods, instead of disable inline globally
+    //new jit code is covered in native: the hooked TryBuildAndInline rejects hooked callees,
+    //jit inline is disabled globally if the inliner can not be hooked, inline hooked origins may still be compilable
+    //only dex of apk is scanned, callers in boot image & framework which inline hooked boot methods are not handled,
+    //use disableDex2oatInline too if hasBootClassHooks
+    //return count of deoptimized methods
+    public static int deoptimizeCallers(ClassLoader classLoader, String apkPath) {
+        if (SandHookConfig.SDK_INT < Build.VERSION_CODES.N)
+            return 0;
+        try {
+            Set<String> callers = DexCallerScanner.scanCallers(apkPath,
+                    new ArrayList<>(globalHookEntityMap.keySet()), PROFILE_INLINE_DEPTH);
+            List<Member> members = new ArrayList<>();
+            for (String caller:callers) {
+                Member member = DexCallerScanner.resolve(caller, classLoader);
+                if (member != null && !globalHookEntityMap.containsKey(member)) {
+                    members.add(member);
+                }
+            }
+            if (members.isEmpty())
+                return 0;
+            return deCompileMethods(members.toArray(new Member[members.size()]), false);
+        } catch (Throwable throwable) {
+            HookLog.e("deoptimize callers error", throwable);
+            return 0;
+        }
+    }
+
+    //hooked methods of boot classes, their callers are out of reach of deoptimizeCallers
+    public static boolean hasBootClassHooks() {
+        ClassLoader bootClassLoader = Object.class.getClassLoader();
+        for (Member member:globalHookEntityMap.keySet()) {
+            ClassLoader classLoader = member.getDeclaringClass().getClassLoader();
+            if (classLoader == null || classLoader == bootClassLoader)
+                return true;
+        }
+        return false;
+    }
+
+    //remove hooked methods & callers may inline them from JIT/AOT Profile, others are kept for speed-profile
+    //fallback to tryDisableProfile if profile format not supported
+    public static boolean tryFilterProfile(String selfPackageName, String apkPath) {
+        if (SandHookConfig.SDK_INT < Build.VERSION_CODES.N)
+            return false;
+        File profileDir = new File("/data/misc/profiles/cur/" + SandHookConfig.curUser + "/" + selfPackageName);
+        if (!profileDir.exists())
+            return false;
+        try {
+            File[] profiles = profileDir.listFiles();
+            if (profiles == null)
+                return false;
+            Map<Integer, Set<Integer>> removeMethods = DexCallerScanner.scan(apkPath,
+                    new ArrayList<>(globalHookEntityMap.keySet()), PROFILE_INLINE_DEPTH);
+            for (File profile:profiles) {
+                if (!profile.getName().endsWith(".prof"))
+                    continue;
+                //ProfileSaver merges & writes profile under the same lock
+                int lock = lockFile(profile.getAbsolutePath());
+                if (lock < 0) {
+                    HookLog.w("can not lock profile " + profile + ", disable profile");
+                    return tryDisableProfile(selfPackageName);
+                }
+                boolean filtered;
+                try {
+                    filtered = ProfileFilter.filter(profile, removeMethods);
+                } finally {
+                    unlockFile(lock);
+                }
+                if (!filtered) {
+                    HookLog.w("profile format not supported, disable profile");
+                    return tryDisableProfile(selfPackageName);
+                }
+            }
+            return true;
+        } catch (Throwable throwable) {
+            HookLog.e("filter profile error", throwable);
+            return tryDisableProfile(selfPackageName);
+        }
+    }
+
+    //jni short/long name mangling of native method
+    private static String mangleJniName(String name) {
+        StringBuilder builder = new StringBuilder();
+        for (char c:name.toCharArray()) {
+            if (c == '/') {
+                builder.append('_');
+            } else if (c == '_') {
+                builder.append("_1");
+            } else if (c == ';') {
+                builder.append("_2");
+            } else if (c == '[') {
+                builder.append("_3");
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                builder.append(c);
+            } else {
+                builder.append(String.format("_0%04x", (int) c));
+            }
+        }
+        return builder.toString();
+    }
+
     private static native boolean initNative(int sdk, boolean debug);
 
     public static native void setHookMode(int hookMode);
@@ -384,20 +549,79 @@ public class SandHook {
     public static native void skipAllSafeCheck(boolean skip);
 
     private static native int hookMethod(Member originMethod, Method hookMethod, Method backupMethod, int hookMode);
+    //route target to c function without java hook method, 7.0+
+    //bool callback(ArtMethod* origin, Thread* self, Size* args, uint64_t* result)
+    //args are raw registers: x1 - x7, d0 - d7 on arm64; r1 - r3, s0 - s15 on arm32
+    //return true to go on origin with (modified) args, false to return *result
+    //callback runs in runnable state, must not call jni or block
+    public static native boolean hookWithNativeCallback(Member target, long callback);
+    //swap jni entry of native method, for both RegisterNatives & dlsym resolved
+    //return origin jni function, 0 if failed
+    public static long hookNativeMethod(Member target, long newFnPtr) {
+        if (target == null || newFnPtr == 0 || !Modifier.isNative(target.getModifiers()))
+            return 0;
+        String signature = DexCallerScanner.signatureOf(target);
+        if (signature == null)
+            return 0;
+        String className = target.getDeclaringClass().getName().replace('.', '/');
+        String params = signature.substring(signature.indexOf('(') + 1, signature.lastIndexOf(')'));
+        String shortName = "Java_" + mangleJniName(className) + "_" + mangleJniName(target.getName());
+        String longName = shortName + "__" + mangleJniName(params);
+        return hookNativeMethod(target, newFnPtr, shortName, longName);
+    }
+    private static native long hookNativeMethod(Member target, long newFnPtr, String shortName, String longName);
+    private static native boolean unhookMethod(Member originMethod);
+    private static native int upgradeHook(Member originMethod, Method hookMethod, Method backupMethod, int hookMode);
+    private static native void setBackgroundCompile(boolean enable);
+    private static native void setCompileBeforeSuspend(boolean enable);
 
     public static native void ensureMethodCached(Method hook, Method backup);
     public static native void ensureDeclareClass(Member origin, Method backup);
 
+    //profiles are processed once after a batch of hooks, call to process pending now
+    public static native boolean flushProfiles();
+    //exclusive flock of file as art LockedFile, -1 if failed
+    private static native int lockFile(String path);
+    private static native void unlockFile(int fd);
+
     public static native boolean compileMethod(Member member);
     public static native boolean deCompileMethod(Member member, boolean disableJit);
 
+    //batch version, all entry points are published in one suspension, return count of success
+    //deCompileMethods keeps methods compilable unless disableJit
+    public static native int compileMethods(Member[] members);
+    public static native int deCompileMethods(Member[] members, boolean disableJit);
+
+    //checked by trampolines, disabled hooks jump to origin code directly
+    public static native void setHooksDisabled(boolean disabled);
+    //per method switch, return false if origin is not hooked
+    public static native boolean setHookEnabled(Member origin, boolean enabled);
+
+    //count calls of hooks installed after enabled, default off
+    public static native void setHookCounting(boolean enable);
+    //snapshot of counting hooks: [art method, call count, last entry ticks] * n
+    //ticks are raw virtual counter (cntvct_el0) of arm64, always 0 on arm32
+    public static native long[] getHookStats();
+
+    //per phase cost of hook install, index by HookTiming.PHASE_*
+    public static native void addHookPhaseTime(Member target, int phase, long nanos);
+    public static native long[] getHookPhaseTimes(Member target);
+    public static native long[] getGlobalHookPhaseTimes();
+
+    //art::Thread of current thread, read from tls
+    private static native long getCurrentThreadPeer();
+
     public static native boolean canGetObject();
     public static native Object getObjectNative(long thread, long address);
+    //decode count objects of addresses into out in one call, return count of non null
+    public static native int getObjects(long[] addresses, Object[] out, int count);
 
     public static native boolean is64Bit();
 
+    //no-op if jit inliner is hooked to reject hooked methods only
     public static native boolean disableVMInline();
 
+    //affects every dex2oat run in process, prefer deoptimizeCallers
     public static native boolean disableDex2oatInline(boolean disableDex2oat);
 
     public static native boolean setNativeEntry(Member origin, Member hook, long nativeEntry);
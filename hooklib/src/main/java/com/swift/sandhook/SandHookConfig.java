@@ -15,6 +15,11 @@ public class SandHookConfig {
     public volatile static ClassLoader initClassLoader;
     public volatile static int curUser = 0;
     public volatile static boolean delayHook = true;
+    //Install hooks without waiting for jit, compile & upgrade them in background
+    public volatile static boolean backgroundCompile = false;
+    //Compile hook methods before suspending other threads for hook install,
+    //threads are still suspended, but the pause is shorter as it only covers patching of origin
+    public volatile static boolean compileBeforeSuspend = false;
 
     public volatile static String libSandHookPath;
     public volatile static LibLoader libLoader = new LibLoader() {
@@ -0,0 +1,389 @@
+package com.swift.sandhook.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Find methods in dex files of an apk which are or may inline the target methods
+// Result is keyed by dex checksum, the same checksum is recorded in ART profiles
+public class DexCallerScanner {
+
+    public static Map<Integer, Set<Integer>> scan(String apkPath, Collection<Member> targets, int inlineDepth) throws IOException {
+        Map<Integer, Set<Integer>> result = new HashMap<>();
+        scan(apkPath, targets, inlineDepth, result, new HashSet<String>());
+        return result;
+    }
+
+    //signatures of methods may inline targets, targets excluded
+    public static Set<String> scanCallers(String apkPath, Collection<Member> targets, int inlineDepth) throws IOException {
+        Set<String> callers = new HashSet<>();
+        scan(apkPath, targets, inlineDepth, new HashMap<Integer, Set<Integer>>(), callers);
+        return callers;
+    }
+
+    private static void scan(String apkPath, Collection<Member> targets, int inlineDepth,
+                             Map<Integer, Set<Integer>> result, Set<String> allCallers) throws IOException {
+        List<Dex> dexes = loadDexes(apkPath);
+        Set<String> signatures = new HashSet<>();
+        for (Member member:targets) {
+            String signature = signatureOf(member);
+            if (signature != null) {
+                signatures.add(signature);
+            }
+        }
+        Set<String> found = new HashSet<>(signatures);
+        for (int depth = 0; depth <= inlineDepth && !signatures.isEmpty(); depth++) {
+            Set<String> callers = new HashSet<>();
+            for (Dex dex:dexes) {
+                Set<Integer> methods = result.get(dex.checksum);
+                if (methods == null) {
+                    methods = new HashSet<>();
+                    result.put(dex.checksum, methods);
+                }
+                Set<Integer> callees = dex.findMethodIds(signatures);
+                methods.addAll(callees);
+                if (depth == inlineDepth || callees.isEmpty())
+                    continue;
+                for (int caller:dex.findCallers(callees)) {
+                    String signature = dex.methodSignature(caller);
+                    if (found.add(signature)) {
+                        callers.add(signature);
+                    }
+                }
+            }
+            allCallers.addAll(callers);
+            signatures = callers;
+        }
+    }
+
+    private static List<Dex> loadDexes(String apkPath) throws IOException {
+        List<Dex> dexes = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(apkPath)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (!name.startsWith("classes") || !name.endsWith(".dex") || name.contains("/"))
+                    continue;
+                try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                    dexes.add(new Dex(readAll(inputStream)));
+                }
+            }
+        }
+        return dexes;
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, len);
+        }
+        return outputStream.toByteArray();
+    }
+
+    // Lpkg/Cls;->name(params)ret
+    public static String signatureOf(Member member) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(descriptorOf(member.getDeclaringClass())).append("->");
+        Class[] params;
+        Class ret;
+        if (member instanceof Method) {
+            builder.append(member.getName());
+            params = ((Method) member).getParameterTypes();
+            ret = ((Method) member).getReturnType();
+        } else if (member instanceof Constructor) {
+            builder.append("<init>");
+            params = ((Constructor) member).getParameterTypes();
+            ret = void.class;
+        } else {
+            return null;
+        }
+        builder.append('(');
+        for (Class param:params) {
+            builder.append(descriptorOf(param));
+        }
+        builder.append(')').append(descriptorOf(ret));
+        return builder.toString();
+    }
+
+    //null if class or method not found in classLoader
+    public static Member resolve(String signature, ClassLoader classLoader) {
+        try {
+            int nameStart = signature.indexOf("->");
+            int paramsStart = signature.indexOf('(', nameStart);
+            int paramsEnd = signature.indexOf(')', paramsStart);
+            Class clazz = classOf(signature.substring(0, nameStart), classLoader);
+            String name = signature.substring(nameStart + 2, paramsStart);
+            List<Class> params = new ArrayList<>();
+            int pos = paramsStart + 1;
+            while (pos < paramsEnd) {
+                int end = pos;
+                while (signature.charAt(end) == '[') {
+                    end++;
+                }
+                end = signature.charAt(end) == 'L' ? signature.indexOf(';', end) + 1 : end + 1;
+                params.add(classOf(signature.substring(pos, end), classLoader));
+                pos = end;
+            }
+            Class[] paramTypes = params.toArray(new Class[params.size()]);
+            if (name.equals("<init>"))
+                return clazz.getDeclaredConstructor(paramTypes);
+            if (name.equals("<clinit>"))
+                return null;
+            return clazz.getDeclaredMethod(name, paramTypes);
+        } catch (Throwable throwable) {
+            return null;
+        }
+    }
+
+    private static Class classOf(String descriptor, ClassLoader classLoader) throws ClassNotFoundException {
+        switch (descriptor.charAt(0)) {
+            case 'V': return void.class;
+            case 'Z': return boolean.class;
+            case 'B': return byte.class;
+            case 'C': return char.class;
+            case 'S': return short.class;
+            case 'I': return int.class;
+            case 'J': return long.class;
+            case 'F': return float.class;
+            case 'D': return double.class;
+            case '[': return Class.forName(descriptor.replace('/', '.'), false, classLoader);
+            default: return Class.forName(descriptor.substring(1, descriptor.length() - 1).replace('/', '.'), false, classLoader);
+        }
+    }
+
+    private static String descriptorOf(Class clazz) {
+        if (clazz.isArray())
+            return clazz.getName().replace('.', '/');
+        if (clazz == void.class) return "V";
+        if (clazz == boolean.class) return "Z";
+        if (clazz == byte.class) return "B";
+        if (clazz == char.class) return "C";
+        if (clazz == short.class) return "S";
+        if (clazz == int.class) return "I";
+        if (clazz == long.class) return "J";
+        if (clazz == float.class) return "F";
+        if (clazz == double.class) return "D";
+        return "L" + clazz.getName().replace('.', '/') + ";";
+    }
+
+    static class Dex {
+
+        private static final int NO_INDEX = -1;
+
+        private final ByteBuffer buffer;
+        final int checksum;
+        private final int stringIdsOff;
+        private final int typeIdsOff;
+        private final int protoIdsOff;
+        private final int methodIdsSize;
+        private final int methodIdsOff;
+        private final int classDefsSize;
+        private final int classDefsOff;
+
+        Dex(byte[] data) {
+            buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            checksum = buffer.getInt(0x08);
+            stringIdsOff = buffer.getInt(0x3C);
+            typeIdsOff = buffer.getInt(0x44);
+            protoIdsOff = buffer.getInt(0x4C);
+            methodIdsSize = buffer.getInt(0x58);
+            methodIdsOff = buffer.getInt(0x5C);
+            classDefsSize = buffer.getInt(0x60);
+            classDefsOff = buffer.getInt(0x64);
+        }
+
+        Set<Integer> findMethodIds(Set<String> signatures) {
+            Set<Integer> ids = new HashSet<>();
+            Set<String> names = new HashSet<>();
+            for (String signature:signatures) {
+                int start = signature.indexOf("->") + 2;
+                names.add(signature.substring(start, signature.indexOf('(', start)));
+            }
+            for (int i = 0; i < methodIdsSize; i++) {
+                //compare name first, most of methods are filtered here
+                if (!names.contains(string(buffer.getInt(methodIdsOff + i * 8 + 4))))
+                    continue;
+                if (signatures.contains(methodSignature(i))) {
+                    ids.add(i);
+                }
+            }
+            return ids;
+        }
+
+        String methodSignature(int methodIdx) {
+            int off = methodIdsOff + methodIdx * 8;
+            int classIdx = buffer.getShort(off) & 0xFFFF;
+            int protoIdx = buffer.getShort(off + 2) & 0xFFFF;
+            int nameIdx = buffer.getInt(off + 4);
+            StringBuilder builder = new StringBuilder();
+            builder.append(type(classIdx)).append("->").append(string(nameIdx)).append('(');
+            int protoOff = protoIdsOff + protoIdx * 12;
+            int paramsOff = buffer.getInt(protoOff + 8);
+            if (paramsOff != 0) {
+                int size = buffer.getInt(paramsOff);
+                for (int i = 0; i < size; i++) {
+                    builder.append(type(buffer.getShort(paramsOff + 4 + i * 2) & 0xFFFF));
+                }
+            }
+            builder.append(')').append(type(buffer.getInt(protoOff + 4)));
+            return builder.toString();
+        }
+
+        Set<Integer> findCallers(Set<Integer> callees) {
+            Set<Integer> callers = new HashSet<>();
+            int[] pos = new int[1];
+            for (int i = 0; i < classDefsSize; i++) {
+                int classDataOff = buffer.getInt(classDefsOff + i * 32 + 24);
+                if (classDataOff == 0)
+                    continue;
+                pos[0] = classDataOff;
+                int staticFields = uleb(pos);
+                int instanceFields = uleb(pos);
+                int directMethods = uleb(pos);
+                int virtualMethods = uleb(pos);
+                for (int j = 0; j < (staticFields + instanceFields) * 2; j++) {
+                    uleb(pos);
+                }
+                int methodIdx = 0;
+                for (int j = 0; j < directMethods + virtualMethods; j++) {
+                    if (j == directMethods) {
+                        methodIdx = 0;
+                    }
+                    methodIdx += uleb(pos);
+                    uleb(pos);
+                    int codeOff = uleb(pos);
+                    if (codeOff != 0 && invokesAny(codeOff, callees)) {
+                        callers.add(methodIdx);
+                    }
+                }
+            }
+            return callers;
+        }
+
+        private boolean invokesAny(int codeOff, Set<Integer> callees) {
+            int insnsSize = buffer.getInt(codeOff + 12);
+            int insnsOff = codeOff + 16;
+            int pc = 0;
+            while (pc < insnsSize) {
+                int unit = buffer.getShort(insnsOff + pc * 2) & 0xFFFF;
+                int opcode = unit & 0xFF;
+                if (isInvoke(opcode) && callees.contains(buffer.getShort(insnsOff + pc * 2 + 2) & 0xFFFF))
+                    return true;
+                int width = opcode == 0 ? payloadWidth(insnsOff + pc * 2, unit) : OPCODE_WIDTHS[opcode];
+                pc += width;
+            }
+            return false;
+        }
+
+        private static boolean isInvoke(int opcode) {
+            return (opcode >= 0x6e && opcode <= 0x72) || (opcode >= 0x74 && opcode <= 0x78)
+                    || opcode == 0xfa || opcode == 0xfb;
+        }
+
+        private int payloadWidth(int off, int unit) {
+            switch (unit) {
+                case 0x0100:
+                    //packed-switch-payload
+                    return (buffer.getShort(off + 2) & 0xFFFF) * 2 + 4;
+                case 0x0200:
+                    //sparse-switch-payload
+                    return (buffer.getShort(off + 2) & 0xFFFF) * 4 + 2;
+                case 0x0300:
+                    //fill-array-data-payload
+                    int width = buffer.getShort(off + 2) & 0xFFFF;
+                    long size = buffer.getInt(off + 4) & 0xFFFFFFFFL;
+                    return (int) ((size * width + 1) / 2 + 4);
+                default:
+                    return 1;
+            }
+        }
+
+        private String type(int typeIdx) {
+            if (typeIdx == NO_INDEX)
+                return "";
+            return string(buffer.getInt(typeIdsOff + typeIdx * 4));
+        }
+
+        private String string(int stringIdx) {
+            int[] pos = new int[] {buffer.getInt(stringIdsOff + stringIdx * 4)};
+            int utf16Size = uleb(pos);
+            char[] chars = new char[utf16Size];
+            int off = pos[0];
+            //modified utf-8
+            for (int i = 0; i < utf16Size; i++) {
+                int a = buffer.get(off++) & 0xFF;
+                if (a < 0x80) {
+                    chars[i] = (char) a;
+                } else if ((a & 0xE0) == 0xC0) {
+                    int b = buffer.get(off++) & 0x3F;
+                    chars[i] = (char) (((a & 0x1F) << 6) | b);
+                } else {
+                    int b = buffer.get(off++) & 0x3F;
+                    int c = buffer.get(off++) & 0x3F;
+                    chars[i] = (char) (((a & 0x0F) << 12) | (b << 6) | c);
+                }
+            }
+            return new String(chars);
+        }
+
+        private int uleb(int[] pos) {
+            int result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = buffer.get(pos[0]++) & 0xFF;
+                result |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        //code units of each opcode
+        private static final int[] OPCODE_WIDTHS = new int[256];
+
+        static {
+            int[][] ranges = new int[][] {
+                    //{first opcode, last opcode, width}
+                    {0x00, 0x01, 1}, {0x02, 0x02, 2}, {0x03, 0x03, 3},
+                    {0x04, 0x04, 1}, {0x05, 0x05, 2}, {0x06, 0x06, 3},
+                    {0x07, 0x07, 1}, {0x08, 0x08, 2}, {0x09, 0x09, 3},
+                    {0x0a, 0x12, 1}, {0x13, 0x13, 2}, {0x14, 0x14, 3},
+                    {0x15, 0x16, 2}, {0x17, 0x17, 3}, {0x18, 0x18, 5},
+                    {0x19, 0x1a, 2}, {0x1b, 0x1b, 3}, {0x1c, 0x1c, 2},
+                    {0x1d, 0x1e, 1}, {0x1f, 0x20, 2}, {0x21, 0x21, 1},
+                    {0x22, 0x23, 2}, {0x24, 0x26, 3}, {0x27, 0x28, 1},
+                    {0x29, 0x29, 2}, {0x2a, 0x2c, 3}, {0x2d, 0x3d, 2},
+                    {0x3e, 0x43, 1}, {0x44, 0x6d, 2}, {0x6e, 0x72, 3},
+                    {0x73, 0x73, 1}, {0x74, 0x78, 3}, {0x79, 0x8f, 1},
+                    {0x90, 0xaf, 2}, {0xb0, 0xcf, 1}, {0xd0, 0xe2, 2},
+                    {0xe3, 0xf9, 1}, {0xfa, 0xfb, 4}, {0xfc, 0xfd, 3},
+                    {0xfe, 0xff, 2}
+            };
+            for (int[] range:ranges) {
+                for (int opcode = range[0]; opcode <= range[1]; opcode++) {
+                    OPCODE_WIDTHS[opcode] = range[2];
+                }
+            }
+        }
+
+    }
+
+}
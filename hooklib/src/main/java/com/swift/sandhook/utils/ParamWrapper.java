@@ -10,6 +10,7 @@ public class ParamWrapper {
         is64Bit = SandHook.is64Bit();
     }
 
+    //types of stubs which take all args as words, float & double only fit stubs of same arg shape
     public static boolean support(Class objectType) {
         if (is64Bit) {
             return objectType != float.class && objectType != double.class;
@@ -19,6 +20,14 @@ public class ParamWrapper {
     }
 
     public static Object addressToObject(Class objectType, long address) {
+        //raw bits, float in low 32 bits
+        if (objectType == float.class) {
+            return Float.intBitsToFloat((int) address);
+        } else if (objectType == double.class) {
+            return Double.longBitsToDouble(address);
+        } else if (objectType == long.class) {
+            return address;
+        }
         if (is64Bit) {
             return addressToObject64(objectType, address);
         } else {
@@ -73,6 +82,13 @@ public class ParamWrapper {
     }
 
     public static long objectToAddress(Class objectType, Object object) {
+        if (objectType == float.class) {
+            return object == null ? 0 : Float.floatToRawIntBits((float) object) & 0xffffffffL;
+        } else if (objectType == double.class) {
+            return object == null ? 0 : Double.doubleToRawLongBits((double) object);
+        } else if (objectType == long.class) {
+            return object == null ? 0 : (long) object;
+        }
         if (is64Bit) {
             return objectToAddress64(objectType, object);
         } else {
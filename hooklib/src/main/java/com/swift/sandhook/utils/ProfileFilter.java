@@ -0,0 +1,214 @@
+package com.swift.sandhook.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Remove methods from ART binary profile (version 010, 9 - 11)
+// Other methods, classes & inline caches are kept, so speed-profile still works for the app
+// Other versions are not rewritten, caller falls back to disable profile
+public class ProfileFilter {
+
+    private static final byte[] MAGIC = new byte[] {'p', 'r', 'o', 0};
+    private static final byte[][] VERSIONS = new byte[][] {
+            {'0', '1', '0', 0}
+    };
+
+    //inline cache of dex pc is missing types or megamorphic, no class follows
+    private static final int IS_MISSING_TYPES = 6;
+    private static final int IS_MEGAMORPHIC = 7;
+    //startup & post startup
+    private static final int BITMAP_COUNT = 2;
+
+    /**
+     * Profile is replaced by rename, caller should hold the flock of profile as ProfileSaver does
+     * @param removeMethods dex checksum -> dex method indexes to remove
+     * @return false if format of profile is not supported
+     */
+    public static boolean filter(File profile, Map<Integer, Set<Integer>> removeMethods) throws IOException {
+        byte[] data = readAll(profile);
+        if (data.length == 0)
+            return true;
+        ByteBuffer in = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        if (data.length < 17 || !Arrays.equals(Arrays.copyOfRange(data, 0, 4), MAGIC))
+            return false;
+        byte[] version = Arrays.copyOfRange(data, 4, 8);
+        boolean supported = false;
+        for (byte[] v:VERSIONS) {
+            supported |= Arrays.equals(v, version);
+        }
+        if (!supported)
+            return false;
+        in.position(8);
+        int dexCount = in.get() & 0xFF;
+        int uncompressedSize = in.getInt();
+        int compressedSize = in.getInt();
+        if (compressedSize != in.remaining())
+            return false;
+        byte[] lines;
+        try {
+            lines = inflate(data, in.position(), compressedSize, uncompressedSize);
+        } catch (DataFormatException e) {
+            return false;
+        }
+        if (lines == null)
+            return false;
+        ByteBuffer out = ByteBuffer.allocate(lines.length).order(ByteOrder.LITTLE_ENDIAN);
+        if (!filterLines(ByteBuffer.wrap(lines).order(ByteOrder.LITTLE_ENDIAN), dexCount, removeMethods, out))
+            return false;
+        if (out.position() == lines.length && Arrays.equals(Arrays.copyOf(out.array(), lines.length), lines))
+            return true;
+        byte[] compressed = deflate(out.array(), out.position());
+        ByteBuffer header = ByteBuffer.allocate(17).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).put(version).put((byte) dexCount).putInt(out.position()).putInt(compressed.length);
+        //readers open profile by path, never see a partially written one
+        File tmp = new File(profile.getPath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tmp)) {
+            outputStream.write(header.array());
+            outputStream.write(compressed);
+            outputStream.getFD().sync();
+        }
+        if (!tmp.renameTo(profile)) {
+            tmp.delete();
+            throw new IOException("can not replace profile " + profile);
+        }
+        return true;
+    }
+
+    private static boolean filterLines(ByteBuffer in, int dexCount, Map<Integer, Set<Integer>> removeMethods, ByteBuffer out) {
+        try {
+            for (int i = 0; i < dexCount; i++) {
+                int keySize = in.getShort() & 0xFFFF;
+                int classCount = in.getShort() & 0xFFFF;
+                int hotRegionSize = in.getInt();
+                int checksum = in.getInt();
+                int methodIdCount = in.getInt();
+                byte[] key = new byte[keySize];
+                in.get(key);
+                Set<Integer> removes = removeMethods.get(checksum);
+
+                //hot methods: diff of method index, inline caches
+                ByteBuffer hotRegion = ByteBuffer.allocate(hotRegionSize).order(ByteOrder.LITTLE_ENDIAN);
+                int hotEnd = in.position() + hotRegionSize;
+                int methodIdx = 0;
+                int lastKept = 0;
+                while (in.position() < hotEnd) {
+                    methodIdx += in.getShort() & 0xFFFF;
+                    int cacheStart = in.position();
+                    skipInlineCaches(in);
+                    if (removes != null && removes.contains(methodIdx))
+                        continue;
+                    hotRegion.putShort((short) (methodIdx - lastKept));
+                    hotRegion.put(in.array(), cacheStart, in.position() - cacheStart);
+                    lastKept = methodIdx;
+                }
+                if (in.position() != hotEnd)
+                    return false;
+
+                out.putShort((short) keySize);
+                out.putShort((short) classCount);
+                out.putInt(hotRegion.position());
+                out.putInt(checksum);
+                out.putInt(methodIdCount);
+                out.put(key);
+                out.put(hotRegion.array(), 0, hotRegion.position());
+
+                //classes
+                byte[] classes = new byte[classCount * 2];
+                in.get(classes);
+                out.put(classes);
+
+                //startup & post startup bitmap
+                byte[] bitmap = new byte[(methodIdCount * BITMAP_COUNT + 7) / 8];
+                in.get(bitmap);
+                if (removes != null) {
+                    for (int index:removes) {
+                        if (index >= methodIdCount)
+                            continue;
+                        for (int flag = 0; flag < BITMAP_COUNT; flag++) {
+                            int bit = index + flag * methodIdCount;
+                            bitmap[bit / 8] &= ~(1 << (bit % 8));
+                        }
+                    }
+                }
+                out.put(bitmap);
+            }
+            return !in.hasRemaining();
+        } catch (RuntimeException e) {
+            //buffer under/overflow of unknown format
+            return false;
+        }
+    }
+
+    private static void skipInlineCaches(ByteBuffer in) {
+        int cacheCount = in.getShort() & 0xFFFF;
+        for (int i = 0; i < cacheCount; i++) {
+            //dex pc
+            in.getShort();
+            int dexCount = in.get() & 0xFF;
+            if (dexCount == IS_MISSING_TYPES || dexCount == IS_MEGAMORPHIC)
+                continue;
+            for (int j = 0; j < dexCount; j++) {
+                //profile index
+                in.get();
+                int classCount = in.get() & 0xFF;
+                in.position(in.position() + classCount * 2);
+            }
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int offset, int len, int uncompressedSize) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, len);
+            byte[] result = new byte[uncompressedSize];
+            int size = inflater.inflate(result);
+            if (size != uncompressedSize || !inflater.finished())
+                return null;
+            return result;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] data, int len) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data, 0, len);
+            deflater.finish();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int size = deflater.deflate(buffer);
+                outputStream.write(buffer, 0, size);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, len);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+}
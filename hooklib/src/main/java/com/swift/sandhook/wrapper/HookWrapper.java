@@ -29,12 +29,25 @@ public class HookWrapper {
     }
 
     public static void addHookClass(ClassLoader classLoader, Class<?>... classes) throws HookErrorException {
-        for (Class clazz:classes) {
-            addHookClass(classLoader, clazz);
+        try {
+            for (Class clazz:classes) {
+                hookClass(classLoader, clazz);
+            }
+        } finally {
+            //flush profile once after the batch
+            SandHook.flushProfiles();
         }
     }
 
     public static void addHookClass(ClassLoader classLoader, Class<?> clazz) throws HookErrorException {
+        try {
+            hookClass(classLoader, clazz);
+        } finally {
+            SandHook.flushProfiles();
+        }
+    }
+
+    private static void hookClass(ClassLoader classLoader, Class<?> clazz) throws HookErrorException {
         Class targetHookClass = getTargetHookClass(classLoader, clazz);
         if (targetHookClass == null)
             throw new HookErrorException("error hook wrapper class :" + clazz.getName());
@@ -0,0 +1,193 @@
+package com.swift.sandhook.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Member;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class DexCallerScannerTest {
+
+    private static final int CHECKSUM = 0x0badcafe;
+    private static final String FIXTURE = "Lcom/swift/sandhook/utils/DexCallerScannerTest$Fixture;";
+
+    //method ids of fixture dex
+    private static final int TARGET = 0;
+    private static final int CALLER = 1;
+    private static final int CALLER_OF_CALLER = 2;
+    private static final int UNRELATED = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    //methods of fixture dex, bodies are not used
+    static class Fixture {
+        static void target() {}
+        static void caller() {}
+        static void callerOfCaller() {}
+        static void unrelated() {}
+    }
+
+    @Test
+    public void signatureOf() throws Exception {
+        assertEquals(FIXTURE + "->target()V", DexCallerScanner.signatureOf(Fixture.class.getDeclaredMethod("target")));
+        assertEquals("Ljava/lang/String;-><init>([CII)V",
+                DexCallerScanner.signatureOf(String.class.getDeclaredConstructor(char[].class, int.class, int.class)));
+    }
+
+    @Test
+    public void resolve() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        assertEquals(Fixture.class.getDeclaredMethod("caller"),
+                DexCallerScanner.resolve(FIXTURE + "->caller()V", classLoader));
+        assertEquals(String.class.getDeclaredConstructor(char[].class, int.class, int.class),
+                DexCallerScanner.resolve("Ljava/lang/String;-><init>([CII)V", classLoader));
+        assertNull(DexCallerScanner.resolve("Lnot/Exist;->caller()V", classLoader));
+    }
+
+    @Test
+    public void scanByDepth() throws Exception {
+        String apk = writeApk();
+        Member target = Fixture.class.getDeclaredMethod("target");
+
+        Map<Integer, Set<Integer>> direct = DexCallerScanner.scan(apk, Collections.singletonList(target), 1);
+        assertEquals(setOf(TARGET, CALLER), direct.get(CHECKSUM));
+
+        Map<Integer, Set<Integer>> nested = DexCallerScanner.scan(apk, Collections.singletonList(target), 2);
+        assertEquals(setOf(TARGET, CALLER, CALLER_OF_CALLER), nested.get(CHECKSUM));
+        assertFalse(nested.get(CHECKSUM).contains(UNRELATED));
+    }
+
+    @Test
+    public void scanCallers() throws Exception {
+        String apk = writeApk();
+        Set<String> callers = DexCallerScanner.scanCallers(apk,
+                Collections.<Member>singletonList(Fixture.class.getDeclaredMethod("target")), 3);
+        assertEquals(new HashSet<>(Arrays.asList(FIXTURE + "->caller()V", FIXTURE + "->callerOfCaller()V")), callers);
+    }
+
+    private static Set<Integer> setOf(Integer... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+    private String writeApk() throws Exception {
+        File apk = folder.newFile("base.apk");
+        try (ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(apk))) {
+            outputStream.putNextEntry(new ZipEntry("classes.dex"));
+            outputStream.write(buildDex());
+            outputStream.closeEntry();
+            //not a dex of apk
+            outputStream.putNextEntry(new ZipEntry("assets/classes.dex"));
+            outputStream.write(new byte[16]);
+            outputStream.closeEntry();
+        }
+        return apk.getPath();
+    }
+
+    //one class with static methods target, caller -> target, callerOfCaller -> caller, unrelated
+    private static byte[] buildDex() throws UnsupportedEncodingException {
+        String[] strings = new String[] {FIXTURE, "V", "target", "caller", "callerOfCaller", "unrelated"};
+        ByteBuffer dex = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        dex.position(0x70);
+
+        int stringIdsOff = dex.position();
+        dex.position(stringIdsOff + strings.length * 4);
+        int typeIdsOff = dex.position();
+        //class, V
+        dex.putInt(0).putInt(1);
+        int protoIdsOff = dex.position();
+        //()V
+        dex.putInt(1).putInt(1).putInt(0);
+        int methodIdsOff = dex.position();
+        for (int name = 2; name < strings.length; name++) {
+            dex.putShort((short) 0).putShort((short) 0).putInt(name);
+        }
+        int classDefsOff = dex.position();
+        dex.position(classDefsOff + 32);
+
+        for (int i = 0; i < strings.length; i++) {
+            dex.putInt(stringIdsOff + i * 4, dex.position());
+            byte[] bytes = strings[i].getBytes("UTF-8");
+            uleb(dex, bytes.length);
+            dex.put(bytes).put((byte) 0);
+        }
+
+        align(dex);
+        //const/4 v0, 0; return-void
+        int unrelatedCode = code(dex, new short[] {0x0012, 0x000e});
+        //invoke-static {}, target; return-void
+        int callerCode = code(dex, new short[] {0x0071, TARGET, 0, 0x000e});
+        //nop; invoke-static {}, caller; return-void; packed-switch-payload is skipped
+        int callerOfCallerCode = code(dex, new short[] {0x0000, 0x0071, CALLER, 0, 0x000e,
+                0x0100, 1, 0, 0, 0x0071, TARGET});
+        int targetCode = code(dex, new short[] {0x000e});
+
+        int classDataOff = dex.position();
+        uleb(dex, 0);
+        uleb(dex, 0);
+        uleb(dex, 4);
+        uleb(dex, 0);
+        int[] codes = new int[] {targetCode, callerCode, callerOfCallerCode, unrelatedCode};
+        for (int i = 0; i < codes.length; i++) {
+            //method index diff, static, code
+            uleb(dex, i == 0 ? 0 : 1);
+            uleb(dex, 0x8);
+            uleb(dex, codes[i]);
+        }
+
+        dex.putInt(classDefsOff, 0);
+        dex.putInt(classDefsOff + 24, classDataOff);
+
+        dex.put(0, "dex\n035\0".getBytes("UTF-8"));
+        dex.putInt(0x08, CHECKSUM);
+        dex.putInt(0x20, dex.position());
+        dex.putInt(0x3C, stringIdsOff);
+        dex.putInt(0x44, typeIdsOff);
+        dex.putInt(0x4C, protoIdsOff);
+        dex.putInt(0x58, strings.length - 2);
+        dex.putInt(0x5C, methodIdsOff);
+        dex.putInt(0x60, 1);
+        dex.putInt(0x64, classDefsOff);
+        return Arrays.copyOf(dex.array(), dex.position());
+    }
+
+    private static int code(ByteBuffer dex, short[] insns) {
+        int off = dex.position();
+        dex.putShort((short) 1).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        dex.putInt(0).putInt(insns.length);
+        for (short insn:insns) {
+            dex.putShort(insn);
+        }
+        align(dex);
+        return off;
+    }
+
+    private static void align(ByteBuffer dex) {
+        while (dex.position() % 4 != 0) {
+            dex.put((byte) 0);
+        }
+    }
+
+    private static void uleb(ByteBuffer dex, int value) {
+        while ((value & ~0x7F) != 0) {
+            dex.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dex.put((byte) value);
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.swift.sandhook.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.*;
+
+public class ProfileFilterTest {
+
+    private static final int CHECKSUM = 0x12345678;
+    private static final int METHOD_ID_COUNT = 16;
+    private static final byte[] VERSION_010 = new byte[] {'0', '1', '0', 0};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void removeMethods() throws Exception {
+        File profile = writeProfile(VERSION_010, new int[] {1, 5, 9});
+
+        assertTrue(ProfileFilter.filter(profile, removes(CHECKSUM, 5)));
+
+        Line line = readProfile(profile);
+        assertEquals(Arrays.asList(1, 9), line.hotMethods);
+        assertArrayEquals(new int[] {3}, line.classes);
+        assertTrue(line.inBitmap(1));
+        assertFalse(line.inBitmap(5));
+        assertTrue(line.inBitmap(9));
+        assertFalse(new File(profile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void keepInlineCachesOfOtherMethods() throws Exception {
+        File profile = writeProfile(VERSION_010, new int[] {2, 5, 7});
+
+        assertTrue(ProfileFilter.filter(profile, removes(CHECKSUM, 2)));
+
+        Line line = readProfile(profile);
+        assertEquals(Arrays.asList(5, 7), line.hotMethods);
+        assertTrue(line.hadInlineCache);
+    }
+
+    @Test
+    public void otherDexUntouched() throws Exception {
+        File profile = writeProfile(VERSION_010, new int[] {1, 5});
+        byte[] before = Files.readAllBytes(profile.toPath());
+
+        assertTrue(ProfileFilter.filter(profile, removes(CHECKSUM + 1, 5)));
+
+        assertArrayEquals(before, Files.readAllBytes(profile.toPath()));
+    }
+
+    @Test
+    public void unsupportedVersion() throws Exception {
+        File profile = writeProfile(new byte[] {'0', '0', '5', 0}, new int[] {1});
+        byte[] before = Files.readAllBytes(profile.toPath());
+
+        assertFalse(ProfileFilter.filter(profile, removes(CHECKSUM, 1)));
+
+        assertArrayEquals(before, Files.readAllBytes(profile.toPath()));
+    }
+
+    @Test
+    public void version009NotRewritten() throws Exception {
+        File profile = writeProfile(new byte[] {'0', '0', '9', 0}, new int[] {1, 5});
+        byte[] before = Files.readAllBytes(profile.toPath());
+
+        assertFalse(ProfileFilter.filter(profile, removes(CHECKSUM, 5)));
+
+        assertArrayEquals(before, Files.readAllBytes(profile.toPath()));
+    }
+
+    @Test
+    public void emptyProfile() throws Exception {
+        File profile = folder.newFile("empty.prof");
+
+        assertTrue(ProfileFilter.filter(profile, removes(CHECKSUM, 1)));
+        assertEquals(0, profile.length());
+    }
+
+    private static Map<Integer, Set<Integer>> removes(int checksum, Integer... methods) {
+        Map<Integer, Set<Integer>> removes = new HashMap<>();
+        removes.put(checksum, new HashSet<>(Arrays.asList(methods)));
+        return removes;
+    }
+
+    //one dex, hot methods, class 3, hot methods are startup & post startup in bitmap
+    //method 5 has a megamorphic inline cache, method 7 has a monomorphic one
+    private File writeProfile(byte[] version, int[] hotMethods) throws IOException {
+        byte[] key = "base.apk".getBytes("UTF-8");
+        ByteBuffer hot = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        int last = 0;
+        for (int method:hotMethods) {
+            hot.putShort((short) (method - last));
+            last = method;
+            if (method == 5) {
+                hot.putShort((short) 1);
+                hot.putShort((short) 0x10);
+                hot.put((byte) 7);
+            } else if (method == 7) {
+                hot.putShort((short) 1);
+                hot.putShort((short) 0x20);
+                hot.put((byte) 1);
+                hot.put((byte) 0);
+                hot.put((byte) 1);
+                hot.putShort((short) 3);
+            } else {
+                hot.putShort((short) 0);
+            }
+        }
+        byte[] bitmap = new byte[(METHOD_ID_COUNT * 2 + 7) / 8];
+        for (int method:hotMethods) {
+            for (int flag = 0; flag < 2; flag++) {
+                int bit = method + flag * METHOD_ID_COUNT;
+                bitmap[bit / 8] |= 1 << (bit % 8);
+            }
+        }
+        ByteBuffer lines = ByteBuffer.allocate(512).order(ByteOrder.LITTLE_ENDIAN);
+        lines.putShort((short) key.length);
+        lines.putShort((short) 1);
+        lines.putInt(hot.position());
+        lines.putInt(CHECKSUM);
+        lines.putInt(METHOD_ID_COUNT);
+        lines.put(key);
+        lines.put(hot.array(), 0, hot.position());
+        lines.putShort((short) 3);
+        lines.put(bitmap);
+
+        byte[] compressed = deflate(Arrays.copyOf(lines.array(), lines.position()));
+        ByteBuffer header = ByteBuffer.allocate(17).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {'p', 'r', 'o', 0}).put(version).put((byte) 1)
+                .putInt(lines.position()).putInt(compressed.length);
+        File profile = folder.newFile("primary.prof");
+        try (FileOutputStream outputStream = new FileOutputStream(profile)) {
+            outputStream.write(header.array());
+            outputStream.write(compressed);
+        }
+        return profile;
+    }
+
+    private static Line readProfile(File profile) throws Exception {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(profile.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        in.position(8);
+        assertEquals(1, in.get());
+        int uncompressedSize = in.getInt();
+        int compressedSize = in.getInt();
+        assertEquals(in.remaining(), compressedSize);
+        Inflater inflater = new Inflater();
+        byte[] data = new byte[uncompressedSize];
+        inflater.setInput(in.array(), in.position(), compressedSize);
+        assertEquals(uncompressedSize, inflater.inflate(data));
+        inflater.end();
+
+        ByteBuffer lines = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        Line line = new Line();
+        int keySize = lines.getShort();
+        int classCount = lines.getShort();
+        int hotRegionSize = lines.getInt();
+        assertEquals(CHECKSUM, lines.getInt());
+        assertEquals(METHOD_ID_COUNT, lines.getInt());
+        lines.position(lines.position() + keySize);
+        int hotEnd = lines.position() + hotRegionSize;
+        int method = 0;
+        while (lines.position() < hotEnd) {
+            method += lines.getShort();
+            line.hotMethods.add(method);
+            int cacheCount = lines.getShort();
+            for (int i = 0; i < cacheCount; i++) {
+                line.hadInlineCache = true;
+                lines.getShort();
+                int dexCount = lines.get();
+                if (dexCount == 6 || dexCount == 7)
+                    continue;
+                for (int j = 0; j < dexCount; j++) {
+                    lines.get();
+                    int classes = lines.get();
+                    lines.position(lines.position() + classes * 2);
+                }
+            }
+        }
+        line.classes = new int[classCount];
+        for (int i = 0; i < classCount; i++) {
+            line.classes[i] = lines.getShort();
+        }
+        line.bitmap = new byte[(METHOD_ID_COUNT * 2 + 7) / 8];
+        lines.get(line.bitmap);
+        assertFalse(lines.hasRemaining());
+        return line;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        while (!deflater.finished()) {
+            outputStream.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return outputStream.toByteArray();
+    }
+
+    private static class Line {
+        List<Integer> hotMethods = new ArrayList<>();
+        boolean hadInlineCache;
+        int[] classes;
+        byte[] bitmap;
+
+        //both startup & post startup
+        boolean inBitmap(int method) {
+            for (int flag = 0; flag < 2; flag++) {
+                int bit = method + flag * METHOD_ID_COUNT;
+                if ((bitmap[bit / 8] & (1 << (bit % 8))) == 0)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+}
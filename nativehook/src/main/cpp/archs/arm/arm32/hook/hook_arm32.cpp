@@ -77,6 +77,38 @@ void *InlineHookArm32Android::Hook(void *origin, void *replace) {
 }
 
 
+void *InlineHookArm32Android::RelocateCode(void *origin, Addr len) {
+    AutoLock lock(hook_lock);
+
+    void* origin_code;
+    if (IsThumbCode((Addr) origin)) {
+        origin_code = GetThumbCodeAddress(origin);
+    } else {
+        LOGE("relocate %d error!, only support thumb2 now!", origin);
+        return nullptr;
+    }
+
+    void* backup = nullptr;
+    AssemblerA32 assembler_backup(backup_buffer);
+
+    CodeRelocateA32 relocate = CodeRelocateA32(assembler_backup);
+    try {
+        backup = relocate.Relocate(origin, len, nullptr);
+    } catch (ErrorCodeException e) {
+        backup_buffer->FreeBuffer(assembler_backup.GetStartPC(), CodeRelocate::BufferSize(len));
+        return nullptr;
+    }
+#define __ assembler_backup.
+    Label* origin_addr_label = new Label();
+    ALIGN_FOR_LDR
+    __ Ldr(PC, origin_addr_label);
+    __ Emit(origin_addr_label);
+    __ Emit((Addr) GetThumbPC(reinterpret_cast<void *>(reinterpret_cast<Addr>(origin_code) + relocate.cur_offset)));
+    __ Finish();
+#undef __
+    return GetThumbPC(backup);
+}
+
 IMPORT_SHELLCODE(BP_SHELLCODE)
 IMPORT_LABEL(callback_addr_s, Addr)
 IMPORT_LABEL(origin_addr_s, Addr)
@@ -20,6 +20,8 @@ namespace SandHook {
 
             void *SingleInstHook(void *origin, void *replace) override;
 
+            void *RelocateCode(void *origin, Addr len) override;
+
             bool ExceptionHandler(int num, sigcontext *context) override;
 
         private:
@@ -41,7 +41,7 @@ void* CodeRelocateA32::Relocate(void *startPc, Addr len, void *to_pc = nullptr)
     }
     length = len;
     cur_offset = 0;
-    __ AllocBufferFirst(static_cast<U32>(len * 8));
+    __ AllocBufferFirst(BufferSize(len));
     void* curPc = __ GetPC();
     if (to_pc == nullptr) {
         Disassembler::Get()->Disassemble(startPc, len, *this, true);
@@ -53,6 +53,30 @@ void *InlineHookArm64Android::Hook(void *origin, void *replace) {
     return backup;
 }
 
+void *InlineHookArm64Android::RelocateCode(void *origin, Addr len) {
+    AutoLock lock(hook_lock);
+
+    void* backup = nullptr;
+    AssemblerA64 assembler_backup(backup_buffer);
+
+    CodeRelocateA64 relocate = CodeRelocateA64(assembler_backup);
+    try {
+        backup = relocate.Relocate(origin, len, nullptr);
+    } catch (ErrorCodeException e) {
+        backup_buffer->FreeBuffer(assembler_backup.GetStartPC(), CodeRelocate::BufferSize(len));
+        return nullptr;
+    }
+#define __ assembler_backup.
+    Label* origin_addr_label = new Label();
+    __ Ldr(IP1, origin_addr_label);
+    __ Br(IP1);
+    __ Emit(origin_addr_label);
+    __ Emit((Addr) origin + relocate.cur_offset);
+    __ Finish();
+#undef __
+    return backup;
+}
+
 bool InlineHookArm64Android::BreakPoint(void *point, void (*callback)(REG regs[])) {
     if (point == nullptr || callback == nullptr)
         return false;
@@ -38,7 +38,7 @@ void* CodeRelocateA64::Relocate(void *startPc, Addr len, void *toPc = nullptr) t
     start_addr = reinterpret_cast<Addr>(startPc);
     length = len;
     cur_offset = 0;
-    __ AllocBufferFirst(static_cast<U32>(len * 8));
+    __ AllocBufferFirst(BufferSize(len));
     void* cur_pc = __ GetPC();
     if (toPc == nullptr) {
         Disassembler::Get()->Disassemble(startPc, len, *this, true);
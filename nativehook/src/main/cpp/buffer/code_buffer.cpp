@@ -39,6 +39,21 @@ label_alloc_new_space:
     return mmapRes;
 }
 
+//only the last buffer of current page can be given back, others are kept
+void AndroidCodeBuffer::FreeBuffer(void *buffer, U32 size) {
+    if (buffer == nullptr)
+        return;
+    AutoLock autoLock(alloc_space_lock);
+    if (execute_space_list.size() == 0)
+        return;
+    Addr exeSpace = reinterpret_cast<Addr>(execute_space_list.back());
+    Addr start = reinterpret_cast<Addr>(buffer);
+    if (start < exeSpace || start + size != exeSpace + execute_page_offset)
+        return;
+    memset(buffer, 0, size);
+    execute_page_offset = start - exeSpace;
+}
+
 AndroidCodeBuffer::AndroidCodeBuffer() {}
 
 StaticCodeBuffer::StaticCodeBuffer(Addr pc) : pc(pc) {}
@@ -16,6 +16,8 @@ namespace SandHook {
 
             void *GetBuffer(U32 bufferSize) override;
 
+            void FreeBuffer(void *buffer, U32 size) override;
+
         protected:
             std::list<void*> execute_space_list = std::list<void*>();
             std::mutex alloc_space_lock;
@@ -11,6 +11,7 @@
 #endif
 
 using namespace SandHook::Hook;
+using namespace SandHook::Asm;
 using namespace SandHook::Utils;
 
 CodeBuffer* InlineHook::backup_buffer = new AndroidCodeBuffer();
@@ -32,6 +33,15 @@ void InterruptHandler(int signum, siginfo_t* siginfo, void* uc) {
     }
 }
 
+void InlineHook::FreeRelocatedCode(void *code, Addr len) {
+    if (code == nullptr)
+        return;
+    AutoLock lock(hook_lock);
+    //clear thumb bit
+    backup_buffer->FreeBuffer(reinterpret_cast<void *>(reinterpret_cast<Addr>(code) & ~(Addr) 1),
+                              CodeRelocate::BufferSize(len));
+}
+
 bool InlineHook::InitForSingleInstHook() {
     bool do_init = false;
     {
@@ -23,6 +23,8 @@ namespace SandHook {
         public:
             virtual void* GetBuffer(U32 size) = 0;
             virtual void ResetLastBufferSize(U32 size){};
+            //give back a buffer got by GetBuffer, may be ignored
+            virtual void FreeBuffer(void* buffer, U32 size){};
             virtual void* Copy(void* start, U32 size) {
                 void* bufferStart = GetBuffer(size);
                 if (bufferStart == nullptr)
@@ -27,6 +27,11 @@ namespace SandHook {
 
             bool InRelocateRange(Off targetOffset, Addr targetLen);
 
+            //size of code buffer alloced for relocating len bytes
+            static U32 BufferSize(Addr len) {
+                return static_cast<U32>(len * 8);
+            }
+
             Label* GetLaterBindLabel(Addr offset);
 
             virtual ~CodeRelocate() {
@@ -40,6 +40,12 @@ namespace SandHook {
             virtual void *SingleInstHook(void *origin, void *replace) {
                 return nullptr;
             };
+            //relocate insts of [origin, origin + len) to backup buffer, then jump back
+            virtual void *RelocateCode(void *origin, Addr len) {
+                return nullptr;
+            };
+            //give back code of RelocateCode(origin, len) which is not used
+            virtual void FreeRelocatedCode(void *code, Addr len);
             virtual bool ExceptionHandler(int num, sigcontext *context) {
                 return false;
             };
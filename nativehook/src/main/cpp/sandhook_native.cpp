@@ -53,6 +53,16 @@ EXPORT void* SandSingleInstHookSym(const char* so, const char* symb, void* repla
     return InlineHook::instance->SingleInstHook(origin, replace);
 }
 
+extern "C"
+EXPORT void* SandRelocateCode(void* origin, size_t len) {
+    return InlineHook::instance->RelocateCode(origin, len);
+}
+
+extern "C"
+EXPORT void SandFreeRelocatedCode(void* code, size_t len) {
+    InlineHook::instance->FreeRelocatedCode(code, len);
+}
+
 extern "C"
 EXPORT bool SandBreakPoint(void *origin, void (*callback)(REG[])) {
     return InlineHook::instance->BreakPoint(origin, callback);
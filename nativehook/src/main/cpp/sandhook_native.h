@@ -30,6 +30,12 @@ EXPORT void* SandSingleInstHook(void* origin, void* replace);
 extern "C"
 EXPORT void* SandSingleInstHookSym(const char* so, const char* symb, void* replace);
 
+extern "C"
+EXPORT void* SandRelocateCode(void* origin, size_t len);
+
+extern "C"
+EXPORT void SandFreeRelocatedCode(void* code, size_t len);
+
 extern "C"
 EXPORT bool SandBreakPoint(void *origin, void (*callback)(REG[]));
 
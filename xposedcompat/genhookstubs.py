@@ -1,5 +1,6 @@
 #!/usr/bin/python
 
+import argparse
 import os
 
 STUB_FILE_NAME = "MethodHookerStubs"
@@ -191,6 +192,25 @@ def genStub(packageDir):
     gen64Stub(packageDir)
 
 
+def parseSizes(sizes):
+    return [int(size) for size in sizes.split(",")]
+
+
 if __name__ == "__main__":
-    genStub(os.path.join(os.path.dirname(os.path.realpath(__file__)),
-                         "src/main/java/com/swift/sandhook/xposedcompat/hookstub"))
+    # stub sizes can be set by the build of app, e.g.
+    # python genhookstubs.py --sizes64 10,20,60,60,60,30,50,50 --out <generated source dir>
+    parser = argparse.ArgumentParser(description="gen sandhook internal hook stubs")
+    parser.add_argument("--sizes32", type=parseSizes, default=STUB_SIZES_32,
+                        help="stub count of each arg count on 32bit, comma separated")
+    parser.add_argument("--sizes64", type=parseSizes, default=STUB_SIZES_64,
+                        help="stub count of each arg count on 64bit, comma separated")
+    parser.add_argument("--backup", action="store_true", default=HAS_BACKUP,
+                        help="gen backup & call origin stubs")
+    parser.add_argument("--out", default=os.path.join(os.path.dirname(os.path.realpath(__file__)),
+                                                      "src/main/java/com/swift/sandhook/xposedcompat/hookstub"),
+                        help="package dir of generated stubs")
+    options = parser.parse_args()
+    STUB_SIZES_32 = options.sizes32
+    STUB_SIZES_64 = options.sizes64
+    HAS_BACKUP = options.backup
+    genStub(options.out)
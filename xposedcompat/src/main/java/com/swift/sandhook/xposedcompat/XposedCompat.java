@@ -5,6 +5,7 @@ import android.content.Context;
 
 import com.swift.sandhook.SandHookConfig;
 import com.swift.sandhook.xposedcompat.classloaders.ProxyClassLoader;
+import com.swift.sandhook.xposedcompat.hookstub.HookStubManager;
 import com.swift.sandhook.xposedcompat.methodgen.DynamicBridge;
 import com.swift.sandhook.xposedcompat.utils.ApplicationUtils;
 import com.swift.sandhook.xposedcompat.utils.FileUtils;
@@ -32,6 +33,8 @@ public class XposedCompat {
     public static volatile boolean useInternalStub = true;
     public static volatile boolean useNewCallBackup = true;
     public static volatile boolean retryWhenCallOriginError = false;
+    //generate this many stubs at runtime when internal stubs of an arg count are used up, 0 to fall back to dex maker
+    public static volatile int dynamicStubChunkSize = 32;
 
     private static ClassLoader sandHookXposedClassLoader;
 
@@ -104,6 +107,13 @@ public class XposedCompat {
         }
     }
 
+    //opt-in, jit internal stubs in background right after init, so hooks on hot paths start compiled
+    public static void precompileStubs(int stubsPerArgs) {
+        if (useInternalStub) {
+            HookStubManager.precompileStubs(stubsPerArgs);
+        }
+    }
+
     public static void clearOatCache() {
         DynamicBridge.clearOatFile();
     }
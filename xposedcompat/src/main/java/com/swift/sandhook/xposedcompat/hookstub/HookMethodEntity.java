@@ -18,6 +18,17 @@ public class HookMethodEntity {
 
     public boolean isStatic;
 
+    //slot in stub pool, stubArgs is -1 after released
+    public int stubArgs = -1;
+    //index in static stubs of stubArgs, or in the chunk of generated stubs holding stubId
+    public int stubIndex = -1;
+    public int stubId = -1;
+    //arg shape of stub generated for fp args & args in stack, null for word stubs
+    public String stubShape;
+
+    //stub arg index of this & object args, decode in one jni call
+    private int[] objectArgIndexes;
+
     public HookMethodEntity(Member origin, Method hook, Method backup) {
         this.origin = origin;
         this.hook = hook;
@@ -30,15 +41,77 @@ public class HookMethodEntity {
             return new Object[0];
         if (parType == null || parType.length == 0)
             return new Object[0];
-        int argStart = 0;
+        Object[] args = new Object[parType.length];
+        decodeArgs(addresses, args);
+        return args;
+    }
+
+    public Object[] newArgs() {
+        if (parType == null || parType.length == 0)
+            return new Object[0];
+        return new Object[parType.length];
+    }
+
+    //fill args & return this
+    public Object decodeArgs(long[] addresses, Object[] args) {
+        int objCount = getObjectArgIndexes().length;
+        return decodeArgs(addresses, args, new long[objCount], new Object[objCount]);
+    }
+
+    //scratch arrays from pool, no allocation
+    public Object decodeArgs(long[] addresses, Object[] args, HookParamPool.Frame frame) {
+        int objCount = getObjectArgIndexes().length;
+        return decodeArgs(addresses, args, frame.objAddresses(objCount), frame.objects(objCount));
+    }
+
+    private Object decodeArgs(long[] addresses, Object[] args, long[] objAddresses, Object[] objects) {
+        int argStart = isStatic ? 0 : 1;
+        int[] indexes = getObjectArgIndexes();
+        int objCount = indexes.length;
+        if (objCount > 0) {
+            for (int i = 0; i < objCount; i++) {
+                objAddresses[i] = addresses[indexes[i]];
+            }
+            SandHook.getObjects(objAddresses, objects, objCount);
+        }
+        int objIndex = 0;
+        Object thiz = null;
         if (!isStatic) {
-            argStart = 1;
+            thiz = objects[objIndex++];
         }
-        Object[] args = new Object[parType.length];
-        for (int i = argStart;i < parType.length + argStart;i++) {
-            args[i - argStart] = getArg(i - argStart, addresses[i]);
+        for (int i = 0; i < args.length; i++) {
+            if (parType[i].isPrimitive()) {
+                args[i] = getArg(i, addresses[i + argStart]);
+            } else {
+                args[i] = objects[objIndex++];
+            }
         }
-        return args;
+        return thiz;
+    }
+
+    private int[] getObjectArgIndexes() {
+        if (objectArgIndexes != null)
+            return objectArgIndexes;
+        int argStart = isStatic ? 0 : 1;
+        int parCount = parType == null ? 0 : parType.length;
+        int count = argStart;
+        for (int i = 0; i < parCount; i++) {
+            if (!parType[i].isPrimitive()) {
+                count++;
+            }
+        }
+        int[] indexes = new int[count];
+        int cur = 0;
+        if (!isStatic) {
+            indexes[cur++] = 0;
+        }
+        for (int i = 0; i < parCount; i++) {
+            if (!parType[i].isPrimitive()) {
+                indexes[cur++] = i + argStart;
+            }
+        }
+        objectArgIndexes = indexes;
+        return indexes;
     }
 
     public long[] getArgsAddress(long[] oldAddress, Object... args) {
@@ -0,0 +1,126 @@
+package com.swift.sandhook.xposedcompat.hookstub;
+
+import java.util.Arrays;
+
+import de.robv.android.xposed.XC_MethodHook;
+
+//MethodHookParam, args & stub args reused by hooked calls of one thread, one frame for each nested hooked call
+//a pooled param and its args only live until hookBridge returns,
+//callbacks must not keep them or use them in other threads after the callback returns
+public class HookParamPool {
+
+    private static final ThreadLocal<HookParamPool> pools = new ThreadLocal<HookParamPool>() {
+        @Override
+        protected HookParamPool initialValue() {
+            return new HookParamPool();
+        }
+    };
+
+    private Frame[] frames = new Frame[4];
+    private int depth = 0;
+
+    public static HookParamPool get() {
+        return pools.get();
+    }
+
+    //stub args of the next hooked call of this thread, filled by the stub before entering hookBridge
+    public long[] stubArgs(int count) {
+        return frame(depth).stubArgs(count);
+    }
+
+    public Frame push() {
+        //depth is not changed if frame() throws, e.g. OOM when growing frames
+        Frame frame = frame(depth);
+        depth++;
+        return frame;
+    }
+
+    public void pop(Frame frame) {
+        frame.clear();
+        depth--;
+    }
+
+    private Frame frame(int index) {
+        if (index >= frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        }
+        Frame frame = frames[index];
+        if (frame == null) {
+            frame = new Frame();
+            frames[index] = frame;
+        }
+        return frame;
+    }
+
+    public static class Frame {
+
+        private static final Object[] EMPTY_ARGS = new Object[0];
+
+        private final XC_MethodHook.MethodHookParam param = new XC_MethodHook.MethodHookParam();
+
+        //exact size arrays by arg count
+        private long[][] stubArgs = new long[8][];
+        private Object[][] args = new Object[8][];
+        private Object[] usedArgs;
+
+        //scratch of HookMethodEntity.decodeArgs, may be larger than needed
+        private long[] objAddresses = new long[8];
+        private Object[] objects = new Object[8];
+
+        public XC_MethodHook.MethodHookParam param() {
+            return param;
+        }
+
+        public long[] stubArgs(int count) {
+            if (count >= stubArgs.length) {
+                stubArgs = Arrays.copyOf(stubArgs, count + 1);
+            }
+            long[] array = stubArgs[count];
+            if (array == null) {
+                array = new long[count];
+                stubArgs[count] = array;
+            }
+            return array;
+        }
+
+        public Object[] args(int count) {
+            if (count == 0)
+                return EMPTY_ARGS;
+            if (count >= args.length) {
+                args = Arrays.copyOf(args, count + 1);
+            }
+            Object[] array = args[count];
+            if (array == null) {
+                array = new Object[count];
+                args[count] = array;
+            }
+            usedArgs = array;
+            return array;
+        }
+
+        public long[] objAddresses(int count) {
+            if (count > objAddresses.length) {
+                objAddresses = new long[count];
+            }
+            return objAddresses;
+        }
+
+        public Object[] objects(int count) {
+            if (count > objects.length) {
+                objects = new Object[count];
+            }
+            return objects;
+        }
+
+        //drop references, so objects of the call can be collected
+        void clear() {
+            param.reset();
+            if (usedArgs != null) {
+                Arrays.fill(usedArgs, null);
+                usedArgs = null;
+            }
+            Arrays.fill(objects, null);
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.swift.sandhook.xposedcompat.hookstub;
+
+import android.os.Build;
+
+import com.android.dx.BinaryOp;
+import com.android.dx.Code;
+import com.android.dx.DexMaker;
+import com.android.dx.Local;
+import com.android.dx.MethodId;
+import com.android.dx.TypeId;
+import com.swift.sandhook.SandHookConfig;
+import com.swift.sandhook.xposedcompat.XposedCompat;
+import com.swift.sandhook.xposedcompat.utils.DexLog;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import dalvik.system.InMemoryDexClassLoader;
+
+// Generate more stub_hook_x at runtime, when stubs of MethodHookerStubs are used up or can not match the origin method
+// Same code as genhookstubs.py: return hookBridge(id, null, a0, a1 ...), with stub args array from HookParamPool
+// Shape is return type + arg types of stub, one char each:
+// I - int, and everything passed in 32 bits (boolean, byte, char, short, object)
+// J - long, F - float, D - double, V - void return
+// Stub with the same shape as origin gets args in the same registers & stack slots, so fp args and args passed in stack are matched too
+public class HookStubMaker {
+
+    private static final String CLASS_NAME_PREFIX = "SandHookStubs";
+    //bump when generated code changes, cached dex of old versions is not loaded
+    private static final int STUB_VERSION = 1;
+    private static final String METHOD_NAME_HOOK = "stub_hook_";
+
+    private static final TypeId<CallOriginCallBack> callOriginTypeId = TypeId.get(CallOriginCallBack.class);
+    private static final TypeId<long[]> longArrayTypeId = TypeId.get(long[].class);
+
+    private static final MethodId<Float, Integer> floatToRawIntBitsId = TypeId.get(Float.class).getMethod(TypeId.INT, "floatToRawIntBits", TypeId.FLOAT);
+    private static final MethodId<Float, Float> intBitsToFloatId = TypeId.get(Float.class).getMethod(TypeId.FLOAT, "intBitsToFloat", TypeId.INT);
+    private static final MethodId<Double, Long> doubleToRawLongBitsId = TypeId.get(Double.class).getMethod(TypeId.LONG, "doubleToRawLongBits", TypeId.DOUBLE);
+    private static final MethodId<Double, Double> longBitsToDoubleId = TypeId.get(Double.class).getMethod(TypeId.DOUBLE, "longBitsToDouble", TypeId.LONG);
+
+    //shape of stubs in MethodHookerStubs, all args in words
+    public static String getWordShape(boolean is64Bit, int args) {
+        char[] shape = new char[args + 1];
+        Arrays.fill(shape, is64Bit ? 'J' : 'I');
+        return new String(shape);
+    }
+
+    public static String getShape(Class retType, Class[] parTypes, boolean isStatic) {
+        StringBuilder shape = new StringBuilder(parTypes.length + 2);
+        shape.append(retType == null || retType == void.class ? 'V' : getShapeChar(retType));
+        if (!isStatic) {
+            shape.append('I');
+        }
+        for (Class parType : parTypes) {
+            shape.append(getShapeChar(parType));
+        }
+        return shape.toString();
+    }
+
+    private static char getShapeChar(Class type) {
+        if (type == long.class) {
+            return 'J';
+        } else if (type == float.class) {
+            return 'F';
+        } else if (type == double.class) {
+            return 'D';
+        } else {
+            return 'I';
+        }
+    }
+
+    //ids are part of the code, so dex of the same name can be reused from cache
+    public static Method[] makeStubs(boolean is64Bit, String shape, int baseId, int count) {
+        String className = CLASS_NAME_PREFIX + "_v" + STUB_VERSION + "_" + (is64Bit ? 64 : 32) + "_" + shape + "_" + baseId + "_" + count;
+        ClassLoader parent = HookStubMaker.class.getClassLoader();
+        File dexDir = getDexDir();
+        DexMaker dexMaker = new DexMaker();
+        ClassLoader loader = null;
+        try {
+            if (dexDir != null) {
+                loader = dexMaker.loadClassDirect(parent, dexDir, className + ".jar");
+            }
+            if (loader == null) {
+                TypeId<?> stubsTypeId = TypeId.get("L" + className + ";");
+                dexMaker.declare(stubsTypeId, className + ".generated", Modifier.PUBLIC, TypeId.OBJECT);
+                for (int i = 0; i < count; i++) {
+                    generateHookMethod(dexMaker, stubsTypeId, shape, i, baseId + i);
+                }
+                if (SandHookConfig.SDK_INT >= Build.VERSION_CODES.O) {
+                    loader = new InMemoryDexClassLoader(ByteBuffer.wrap(dexMaker.generate()), parent);
+                } else if (dexDir != null) {
+                    loader = dexMaker.generateAndLoad(parent, dexDir, className + ".jar");
+                }
+            }
+            if (loader == null)
+                return null;
+            Class<?> stubClass = loader.loadClass(className);
+            Method[] stubs = new Method[count];
+            for (Method method : stubClass.getDeclaredMethods()) {
+                if (!method.getName().startsWith(METHOD_NAME_HOOK))
+                    continue;
+                int index = Integer.parseInt(method.getName().substring(METHOD_NAME_HOOK.length()));
+                if (index >= 0 && index < count) {
+                    stubs[index] = method;
+                }
+            }
+            for (Method stub : stubs) {
+                if (stub == null)
+                    return null;
+            }
+            return stubs;
+        } catch (Throwable throwable) {
+            DexLog.e("make stubs of shape " + shape + " error", throwable);
+            return null;
+        }
+    }
+
+    private static TypeId<?> getTypeId(char shapeChar) {
+        switch (shapeChar) {
+            case 'J':
+                return TypeId.LONG;
+            case 'F':
+                return TypeId.FLOAT;
+            case 'D':
+                return TypeId.DOUBLE;
+            case 'V':
+                return TypeId.VOID;
+            default:
+                return TypeId.INT;
+        }
+    }
+
+    private static void generateHookMethod(DexMaker dexMaker, TypeId<?> stubsTypeId, String shape, int index, int id) {
+        int args = shape.length() - 1;
+        char retShape = shape.charAt(0);
+        TypeId<?>[] parTypeIds = new TypeId<?>[args];
+        for (int i = 0; i < args; i++) {
+            parTypeIds[i] = getTypeId(shape.charAt(i + 1));
+        }
+        MethodId<?, ?> hookMethodId = stubsTypeId.getMethod(getTypeId(retShape), METHOD_NAME_HOOK + index, parTypeIds);
+        MethodId<HookStubManager, Long> hookBridgeId = TypeId.get(HookStubManager.class)
+                .getMethod(TypeId.LONG, "hookBridge", TypeId.INT, callOriginTypeId, longArrayTypeId);
+        MethodId<HookStubManager, long[]> getStubArgsId = TypeId.get(HookStubManager.class)
+                .getMethod(longArrayTypeId, "getStubArgs", TypeId.INT);
+        Code code = dexMaker.declare(hookMethodId, Modifier.PUBLIC | Modifier.STATIC);
+
+        //all locals must be declared before code
+        Local<Integer> methodId = code.newLocal(TypeId.INT);
+        Local<CallOriginCallBack> callOrigin = code.newLocal(callOriginTypeId);
+        Local<long[]> stubArgs = code.newLocal(longArrayTypeId);
+        Local<Integer> arrayIndex = code.newLocal(TypeId.INT);
+        Local<Long> result = code.newLocal(TypeId.LONG);
+        Local<Long> wideArg = code.newLocal(TypeId.LONG);
+        Local<Long> lowMask = code.newLocal(TypeId.LONG);
+        Local<Integer> narrow = code.newLocal(TypeId.INT);
+        Local<Float> floatResult = code.newLocal(TypeId.FLOAT);
+        Local<Double> doubleResult = code.newLocal(TypeId.DOUBLE);
+
+        code.loadConstant(methodId, id);
+        code.loadConstant(callOrigin, null);
+        code.loadConstant(lowMask, 0xffffffffL);
+        code.loadConstant(arrayIndex, args);
+        code.invokeStatic(getStubArgsId, stubArgs, arrayIndex);
+        for (int i = 0; i < args; i++) {
+            Local<?> arg = code.getParameter(i, parTypeIds[i]);
+            switch (shape.charAt(i + 1)) {
+                case 'J':
+                    break;
+                case 'F':
+                    code.invokeStatic(floatToRawIntBitsId, narrow, arg);
+                    code.cast(wideArg, narrow);
+                    arg = wideArg;
+                    break;
+                case 'D':
+                    code.invokeStatic(doubleToRawLongBitsId, wideArg, arg);
+                    arg = wideArg;
+                    break;
+                default:
+                    //object addresses are unsigned
+                    code.cast(wideArg, arg);
+                    code.op(BinaryOp.AND, wideArg, wideArg, lowMask);
+                    arg = wideArg;
+                    break;
+            }
+            code.loadConstant(arrayIndex, i);
+            code.aput(stubArgs, arrayIndex, arg);
+        }
+        code.invokeStatic(hookBridgeId, result, methodId, callOrigin, stubArgs);
+        switch (retShape) {
+            case 'J':
+                code.returnValue(result);
+                break;
+            case 'F':
+                code.cast(narrow, result);
+                code.invokeStatic(intBitsToFloatId, floatResult, narrow);
+                code.returnValue(floatResult);
+                break;
+            case 'D':
+                code.invokeStatic(longBitsToDoubleId, doubleResult, result);
+                code.returnValue(doubleResult);
+                break;
+            case 'V':
+                code.returnVoid();
+                break;
+            default:
+                code.cast(narrow, result);
+                code.returnValue(narrow);
+                break;
+        }
+    }
+
+    private static File getDexDir() {
+        try {
+            File cacheDir = XposedCompat.getCacheDir();
+            if (cacheDir == null)
+                return null;
+            File dexDir = new File(cacheDir, "/sandxposed/stubs/");
+            if (!dexDir.exists() && !dexDir.mkdirs())
+                return null;
+            return dexDir;
+        } catch (Throwable throwable) {
+            return null;
+        }
+    }
+
+}
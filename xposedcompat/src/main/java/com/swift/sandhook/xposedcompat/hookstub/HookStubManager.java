@@ -2,6 +2,7 @@ package com.swift.sandhook.xposedcompat.hookstub;
 
 import android.util.Log;
 
+import com.swift.sandhook.BackgroundCompiler;
 import com.swift.sandhook.SandHook;
 import com.swift.sandhook.SandHookMethodResolver;
 import com.swift.sandhook.utils.ParamWrapper;
@@ -13,7 +14,18 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedBridge;
@@ -23,21 +35,49 @@ public class HookStubManager {
 
     public static volatile boolean is64Bit;
     //64bits arg0 - arg7 is in reg x1 - x7 and > 7 is in stack, but can not match
+    //methods out of word stubs use stubs generated with the same shape
     public final static int MAX_64_ARGS = 7;
 
     public static int MAX_STUB_ARGS = 0;
 
     public static int[] stubSizes;
+    //id of first stub of each arg count, stubOffsets[MAX_STUB_ARGS + 1] == ALL_STUB
+    public static int[] stubOffsets;
 
     public static boolean hasStubBackup;
 
-    public static AtomicInteger[] curUseStubIndexes;
+    //used stubs of each arg count, bit set by cas
+    private static AtomicLongArray[] stubBitmaps;
+    //stubs handed out of each arg count, including released ones
+    public static AtomicInteger[] stubUseCounts;
 
-    public static int ALL_STUB = 0;
+    //grows with stubs generated at runtime
+    public static volatile int ALL_STUB = 0;
+    //ids of generated stubs start here
+    private static int staticStubs = 0;
 
-    public static Member[] originMethods;
-    public static HookMethodEntity[] hookMethodEntities;
-    public static XposedBridge.AdditionalHookInfo[] additionalHookInfos;
+    //replaced by larger copies when stubs are generated, written under class lock
+    public static volatile Member[] originMethods;
+    public static volatile HookMethodEntity[] hookMethodEntities;
+    public static volatile XposedBridge.AdditionalHookInfo[] additionalHookInfos;
+
+    //stubs generated by HookStubMaker of each arg count, after stubs of MethodHookerStubs are used up
+    private static List<DynamicStubs>[] dynamicStubs;
+    private static volatile boolean makeStubsFailed = false;
+    //stubs generated by HookStubMaker of each shape, for fp args & args in stack
+    private static final Map<String, List<DynamicStubs>> shapeStubs = new ConcurrentHashMap<>();
+    //shapes are many and each is used by few methods
+    private final static int SHAPE_STUB_CHUNK_SIZE = 4;
+
+    private final static String HOOK_STUB_PREFIX = "stub_hook_";
+
+    //unhooked stubs waiting for threads to leave them
+    private static final List<HookMethodEntity> pendingReleases = new ArrayList<>();
+    private final static String BACKUP_STUB_PREFIX = "stub_backup_";
+
+    //stub methods indexed by method id
+    private static Method[] hookStubs;
+    private static Method[] backupStubs;
 
     static {
         is64Bit = SandHook.is64Bit();
@@ -47,14 +87,51 @@ public class HookStubManager {
         hasStubBackup = hasBackup != null && (hasBackup && !XposedCompat.useNewCallBackup);
         if (stubSizes != null && stubSizes.length > 0) {
             MAX_STUB_ARGS = stubSizes.length - 1;
-            curUseStubIndexes = new AtomicInteger[MAX_STUB_ARGS + 1];
+            stubBitmaps = new AtomicLongArray[MAX_STUB_ARGS + 1];
+            stubUseCounts = new AtomicInteger[MAX_STUB_ARGS + 1];
+            dynamicStubs = new List[MAX_STUB_ARGS + 1];
+            stubOffsets = new int[MAX_STUB_ARGS + 2];
             for (int i = 0; i < MAX_STUB_ARGS + 1; i++) {
-                curUseStubIndexes[i] = new AtomicInteger(0);
+                stubBitmaps[i] = new AtomicLongArray((stubSizes[i] + 63) / 64);
+                stubUseCounts[i] = new AtomicInteger(0);
+                dynamicStubs[i] = new CopyOnWriteArrayList<>();
+                stubOffsets[i] = ALL_STUB;
                 ALL_STUB += stubSizes[i];
             }
+            stubOffsets[MAX_STUB_ARGS + 1] = ALL_STUB;
+            staticStubs = ALL_STUB;
             originMethods = new Member[ALL_STUB];
             hookMethodEntities = new HookMethodEntity[ALL_STUB];
             additionalHookInfos = new XposedBridge.AdditionalHookInfo[ALL_STUB];
+            resolveStubMethods(stubClass);
+        }
+    }
+
+    //one reflection pass over stub class, instead of getDeclaredMethod per hook
+    private static void resolveStubMethods(Class stubClass) {
+        hookStubs = new Method[ALL_STUB];
+        backupStubs = new Method[ALL_STUB];
+        for (Method method : stubClass.getDeclaredMethods()) {
+            String name = method.getName();
+            Method[] stubs;
+            int index;
+            try {
+                if (name.startsWith(HOOK_STUB_PREFIX)) {
+                    stubs = hookStubs;
+                    index = Integer.parseInt(name.substring(HOOK_STUB_PREFIX.length()));
+                } else if (name.startsWith(BACKUP_STUB_PREFIX)) {
+                    stubs = backupStubs;
+                    index = Integer.parseInt(name.substring(BACKUP_STUB_PREFIX.length()));
+                } else {
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            int args = method.getParameterTypes().length;
+            if (args > MAX_STUB_ARGS || index < 0 || index >= stubSizes[args])
+                continue;
+            stubs[getMethodId(args, index)] = method;
         }
     }
 
@@ -81,59 +158,134 @@ public class HookStubManager {
             return null;
         }
 
-        if (!ParamWrapper.support(retType))
+        if (parType == null) {
+            parType = new Class[0];
+        }
+
+        int needStubArgCount = (isStatic ? 0 : 1) + parType.length;
+
+        //slot of stub is owned once allocated, no lock needed
+        StubMethodsInfo stubMethodInfo;
+        if (matchWordStubs(retType, parType, needStubArgCount)) {
+            stubMethodInfo = getStubMethodPair(is64Bit, needStubArgCount);
+        } else {
+            stubMethodInfo = getShapeStubMethodPair(is64Bit, HookStubMaker.getShape(retType, parType, isStatic), needStubArgCount);
+        }
+        if (stubMethodInfo == null)
+            return null;
+        HookMethodEntity entity = new HookMethodEntity(origin, stubMethodInfo.hook, stubMethodInfo.backup);
+        entity.retType = retType;
+        entity.parType = parType;
+        entity.stubArgs = stubMethodInfo.args;
+        entity.stubIndex = stubMethodInfo.index;
+        entity.stubId = stubMethodInfo.id;
+        entity.stubShape = stubMethodInfo.shape;
+        if (hasStubBackup && !tryCompileAndResolveCallOriginMethod(entity.backup, stubMethodInfo.args, stubMethodInfo.index)) {
+            DexLog.w("internal stub <" + entity.hook.getName() + "> call origin compile failure, skip use internal stub");
+            //not bound yet, no thread can be in it
+            freeHookMethodEntity(entity);
             return null;
+        } else {
+            //tables may be growing
+            synchronized (HookStubManager.class) {
+                originMethods[entity.stubId] = origin;
+                hookMethodEntities[entity.stubId] = entity;
+                additionalHookInfos[entity.stubId] = additionalHookInfo;
+            }
+            return entity;
+        }
+    }
 
-        int needStubArgCount = isStatic ? 0 : 1;
+    //all args passed in word registers, no fp args
+    private static boolean matchWordStubs(Class retType, Class[] parType, int stubArgs) {
+        if (stubArgs > MAX_STUB_ARGS)
+            return false;
+        if (is64Bit && stubArgs > MAX_64_ARGS)
+            return false;
+        if (!ParamWrapper.support(retType))
+            return false;
+        for (Class par : parType) {
+            if (!ParamWrapper.support(par))
+                return false;
+        }
+        return true;
+    }
 
-        if (parType != null) {
-            needStubArgCount += parType.length;
-            if (needStubArgCount > MAX_STUB_ARGS)
-                return null;
-            if (is64Bit && needStubArgCount > MAX_64_ARGS)
-                return null;
-            for (Class par:parType) {
-                if (!ParamWrapper.support(par))
-                    return null;
+    //stub of an unhooked method can be used by next hook once no thread runs it
+    //a thread may have entered the stub before unhook and not read the tables in hookBridge yet,
+    //it would decode its args by the next method bound to the slot
+    public static void releaseHookMethodEntity(HookMethodEntity entity) {
+        if (entity == null || entity.stubArgs < 0)
+            return;
+        synchronized (pendingReleases) {
+            if (!pendingReleases.contains(entity)) {
+                pendingReleases.add(entity);
             }
-        } else {
-            parType = new Class[0];
         }
+        reclaimStubs();
+    }
 
-        synchronized (HookStubManager.class) {
-            StubMethodsInfo stubMethodInfo = getStubMethodPair(is64Bit, needStubArgCount);
-            if (stubMethodInfo == null)
-                return null;
-            HookMethodEntity entity = new HookMethodEntity(origin, stubMethodInfo.hook, stubMethodInfo.backup);
-            entity.retType = retType;
-            entity.parType = parType;
-            if (hasStubBackup && !tryCompileAndResolveCallOriginMethod(entity.backup, stubMethodInfo.args, stubMethodInfo.index)) {
-                DexLog.w("internal stub <" + entity.hook.getName() + "> call origin compile failure, skip use internal stub");
-                return null;
-            } else {
-                int id = getMethodId(stubMethodInfo.args, stubMethodInfo.index);
-                originMethods[id] = origin;
-                hookMethodEntities[id] = entity;
-                additionalHookInfos[id] = additionalHookInfo;
-                return entity;
+    //origin entry is restored before release, threads in a released stub only leave it, so one snapshot of stacks is enough
+    //threads still in callbacks or origin of the old hook keep the stub out of pool too
+    private static void reclaimStubs() {
+        synchronized (pendingReleases) {
+            if (pendingReleases.isEmpty())
+                return;
+            Set<String> runningStubs = getRunningStubs();
+            Iterator<HookMethodEntity> iterator = pendingReleases.iterator();
+            while (iterator.hasNext()) {
+                HookMethodEntity entity = iterator.next();
+                if (!runningStubs.contains(getStubKey(entity.hook.getDeclaringClass().getName(), entity.hook.getName()))) {
+                    freeHookMethodEntity(entity);
+                    iterator.remove();
+                }
             }
         }
     }
 
-    public static int getMethodId(int args, int index) {
-        int id = index;
-        for (int i = 0;i < args;i++) {
-            id += stubSizes[i];
+    private static Set<String> getRunningStubs() {
+        Set<String> stubs = new HashSet<>();
+        for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+            for (StackTraceElement element : stack) {
+                if (element.getMethodName().startsWith(HOOK_STUB_PREFIX)) {
+                    stubs.add(getStubKey(element.getClassName(), element.getMethodName()));
+                }
+            }
+        }
+        return stubs;
+    }
+
+    private static String getStubKey(String className, String methodName) {
+        return className + "#" + methodName;
+    }
+
+    private static void freeHookMethodEntity(HookMethodEntity entity) {
+        if (entity.stubArgs < 0)
+            return;
+        if (entity.stubId < staticStubs) {
+            freeStub(entity.stubArgs, entity.stubIndex);
+        } else {
+            List<DynamicStubs> chunks = entity.stubShape != null ? shapeStubs.get(entity.stubShape) : dynamicStubs[entity.stubArgs];
+            for (DynamicStubs stubs : chunks) {
+                if (entity.stubId >= stubs.baseId && entity.stubId < stubs.baseId + stubs.hooks.length) {
+                    freeBit(stubs.bitmap, entity.stubId - stubs.baseId);
+                    break;
+                }
+            }
         }
-        return id;
+        entity.stubArgs = -1;
+    }
+
+    public static int getMethodId(int args, int index) {
+        return stubOffsets[args] + index;
     }
 
     public static String getHookMethodName(int index) {
-        return "stub_hook_" + index;
+        return HOOK_STUB_PREFIX + index;
     }
 
     public static String getBackupMethodName(int index) {
-        return "stub_backup_" + index;
+        return BACKUP_STUB_PREFIX + index;
     }
 
     public static String getCallOriginClassName(int args, int index) {
@@ -143,43 +295,210 @@ public class HookStubManager {
 
     static class StubMethodsInfo {
         int args = 0;
+        //slot in static stubs of args, or in its chunk for generated stubs
         int index = 0;
+        int id = 0;
+        //null for word stubs
+        String shape;
         Method hook;
         Method backup;
 
-        public StubMethodsInfo(int args, int index, Method hook, Method backup) {
+        public StubMethodsInfo(int args, int index, int id, Method hook, Method backup) {
             this.args = args;
             this.index = index;
+            this.id = id;
             this.hook = hook;
             this.backup = backup;
         }
     }
 
-    private static synchronized StubMethodsInfo getStubMethodPair(boolean is64Bit, int stubArgs) {
+    //hook stubs of one arg count with continuous ids
+    static class DynamicStubs {
+        final int baseId;
+        final Method[] hooks;
+        final AtomicLongArray bitmap;
 
-        stubArgs = getMatchStubArgsCount(stubArgs);
+        DynamicStubs(int baseId, Method[] hooks) {
+            this.baseId = baseId;
+            this.hooks = hooks;
+            this.bitmap = new AtomicLongArray((hooks.length + 63) / 64);
+        }
+    }
 
-        if (stubArgs < 0)
-            return null;
+    private static StubMethodsInfo getStubMethodPair(boolean is64Bit, int stubArgs) {
+        StubMethodsInfo info = allocStaticStub(stubArgs);
+        //unhooked stubs may be free now
+        if (info == null && hasPendingReleases()) {
+            reclaimStubs();
+            info = allocStaticStub(stubArgs);
+        }
+        if (info != null)
+            return info;
+        //keep large hook sets on stub path
+        return getDynamicStubMethodPair(is64Bit, stubArgs);
+    }
 
-        int curUseStubIndex = curUseStubIndexes[stubArgs].getAndIncrement();
-        Class[] pars = getFindMethodParTypes(is64Bit, stubArgs);
-        try {
-            if (is64Bit) {
-                Method hook = MethodHookerStubs64.class.getDeclaredMethod(getHookMethodName(curUseStubIndex), pars);
-                Method backup = hasStubBackup ? MethodHookerStubs64.class.getDeclaredMethod(getBackupMethodName(curUseStubIndex), pars) : StubMethodsFactory.getStubMethod();
-                if (hook == null || backup == null)
-                    return null;
-                return new StubMethodsInfo(stubArgs, curUseStubIndex, hook, backup);
-            } else {
-                Method hook = MethodHookerStubs32.class.getDeclaredMethod(getHookMethodName(curUseStubIndex), pars);
-                Method backup = hasStubBackup ? MethodHookerStubs32.class.getDeclaredMethod(getBackupMethodName(curUseStubIndex), pars) : StubMethodsFactory.getStubMethod();
-                if (hook == null || backup == null)
-                    return null;
-                return new StubMethodsInfo(stubArgs, curUseStubIndex, hook, backup);
+    private static StubMethodsInfo allocStaticStub(int stubArgs) {
+        for (int args = stubArgs; args <= MAX_STUB_ARGS; args++) {
+            int index = allocStub(args);
+            if (index < 0)
+                continue;
+            stubUseCounts[args].incrementAndGet();
+            int id = getMethodId(args, index);
+            Method hook = hookStubs[id];
+            Method backup = hasStubBackup ? backupStubs[id] : StubMethodsFactory.getStubMethod();
+            if (hook == null || backup == null) {
+                freeStub(args, index);
+                return null;
+            }
+            return new StubMethodsInfo(args, index, id, hook, backup);
+        }
+        return null;
+    }
+
+    private static boolean hasPendingReleases() {
+        synchronized (pendingReleases) {
+            return !pendingReleases.isEmpty();
+        }
+    }
+
+    private static StubMethodsInfo getDynamicStubMethodPair(boolean is64Bit, int args) {
+        return getGeneratedStubMethodPair(is64Bit, dynamicStubs[args], null, args, XposedCompat.dynamicStubChunkSize);
+    }
+
+    //stubs of one shape are shared by all methods of the shape, no dex per method
+    private static StubMethodsInfo getShapeStubMethodPair(boolean is64Bit, String shape, int args) {
+        List<DynamicStubs> chunks = shapeStubs.get(shape);
+        if (chunks == null) {
+            List<DynamicStubs> newChunks = new CopyOnWriteArrayList<>();
+            chunks = shapeStubs.putIfAbsent(shape, newChunks);
+            if (chunks == null) {
+                chunks = newChunks;
             }
-        } catch (Throwable throwable) {
+        }
+        return getGeneratedStubMethodPair(is64Bit, chunks, shape, args, Math.min(XposedCompat.dynamicStubChunkSize, SHAPE_STUB_CHUNK_SIZE));
+    }
+
+    //shape is null for word stubs of arg count
+    private static StubMethodsInfo getGeneratedStubMethodPair(boolean is64Bit, List<DynamicStubs> chunks, String shape, int args, int chunkSize) {
+        //generated stubs have no call origin backup
+        if (hasStubBackup || chunkSize <= 0 || makeStubsFailed)
             return null;
+        StubMethodsInfo info = allocDynamicStub(chunks, shape, args);
+        if (info != null)
+            return info;
+        if (hasPendingReleases()) {
+            reclaimStubs();
+            info = allocDynamicStub(chunks, shape, args);
+            if (info != null)
+                return info;
+        }
+        synchronized (HookStubManager.class) {
+            info = allocDynamicStub(chunks, shape, args);
+            if (info != null)
+                return info;
+            int baseId = ALL_STUB;
+            Method[] hooks = HookStubMaker.makeStubs(is64Bit, shape != null ? shape : HookStubMaker.getWordShape(is64Bit, args), baseId, chunkSize);
+            if (hooks == null) {
+                makeStubsFailed = true;
+                return null;
+            }
+            originMethods = Arrays.copyOf(originMethods, baseId + chunkSize);
+            hookMethodEntities = Arrays.copyOf(hookMethodEntities, baseId + chunkSize);
+            additionalHookInfos = Arrays.copyOf(additionalHookInfos, baseId + chunkSize);
+            ALL_STUB = baseId + chunkSize;
+            chunks.add(new DynamicStubs(baseId, hooks));
+            DexLog.d("generate " + chunkSize + " stubs of " + (shape != null ? "shape " + shape : args + " args"));
+        }
+        return allocDynamicStub(chunks, shape, args);
+    }
+
+    private static StubMethodsInfo allocDynamicStub(List<DynamicStubs> chunks, String shape, int args) {
+        for (DynamicStubs stubs : chunks) {
+            int index = allocBit(stubs.bitmap, stubs.hooks.length);
+            if (index < 0)
+                continue;
+            Method backup = StubMethodsFactory.getStubMethod();
+            if (backup == null) {
+                freeBit(stubs.bitmap, index);
+                return null;
+            }
+            if (shape == null) {
+                stubUseCounts[args].incrementAndGet();
+            }
+            StubMethodsInfo info = new StubMethodsInfo(args, index, stubs.baseId + index, stubs.hooks[index], backup);
+            info.shape = shape;
+            return info;
+        }
+        return null;
+    }
+
+    //lowest free stub of arg count, -1 if all used
+    private static int allocStub(int args) {
+        return allocBit(stubBitmaps[args], stubSizes[args]);
+    }
+
+    private static void freeStub(int args, int index) {
+        freeBit(stubBitmaps[args], index);
+    }
+
+    private static int allocBit(AtomicLongArray bitmap, int size) {
+        for (int word = 0; word < bitmap.length(); word++) {
+            while (true) {
+                long bits = bitmap.get(word);
+                int bit = Long.numberOfTrailingZeros(~bits);
+                if (bit == 64 || word * 64 + bit >= size)
+                    break;
+                if (bitmap.compareAndSet(word, bits, bits | (1L << bit)))
+                    return word * 64 + bit;
+            }
+        }
+        return -1;
+    }
+
+    private static void freeBit(AtomicLongArray bitmap, int index) {
+        int word = index / 64;
+        long mask = 1L << (index % 64);
+        while (true) {
+            long bits = bitmap.get(word);
+            if (bitmap.compareAndSet(word, bits, bits & ~mask))
+                return;
+        }
+    }
+
+    private static boolean isStubUsed(int args, int index) {
+        return (stubBitmaps[args].get(index / 64) & (1L << (index % 64))) != 0;
+    }
+
+    //jit stubs which will be used next in background, so first calls of new hooks are not interpreted
+    //arg counts used most come first, free stubs of one arg count are taken in order
+    public static void precompileStubs(int stubsPerArgs) {
+        if (!support() || stubsPerArgs <= 0)
+            return;
+        Integer[] order = new Integer[MAX_STUB_ARGS + 1];
+        for (int i = 0; i <= MAX_STUB_ARGS; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int used = stubUseCounts[b].get() - stubUseCounts[a].get();
+                return used != 0 ? used : a - b;
+            }
+        });
+        for (int args : order) {
+            if (is64Bit && args > MAX_64_ARGS)
+                continue;
+            List<Member> stubs = new ArrayList<>();
+            for (int index = 0; index < stubSizes[args] && stubs.size() < stubsPerArgs; index++) {
+                Method hook = hookStubs[getMethodId(args, index)];
+                if (hook != null && !isStubUsed(args, index)) {
+                    stubs.add(hook);
+                }
+            }
+            if (!stubs.isEmpty()) {
+                BackgroundCompiler.enqueue(stubs.toArray(new Member[0]));
+            }
         }
     }
 
@@ -209,8 +528,10 @@ public class HookStubManager {
 
     public static int getMatchStubArgsCount(int stubArgs) {
         for (int i = stubArgs;i <= MAX_STUB_ARGS;i++) {
-            if (curUseStubIndexes[i].get() < stubSizes[i])
-                return i;
+            for (int index = 0; index < stubSizes[i]; index++) {
+                if (!isStubUsed(i, index))
+                    return i;
+            }
         }
         return -1;
     }
@@ -231,7 +552,182 @@ public class HookStubManager {
         return args;
     }
 
+    //stub args array of generated stubs, from pool of this thread
+    public static long[] getStubArgs(int count) {
+        return HookParamPool.get().stubArgs(count);
+    }
+
+    //stubs of MethodHookerStubs call fixed arg count bridges, args are copied to pool instead of a new varargs array
+    public static long hookBridge(int id, CallOriginCallBack callOrigin) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        return hookBridge(pool, id, callOrigin, pool.stubArgs(0));
+    }
+
+    public static long hookBridge(int id, CallOriginCallBack callOrigin, long a0) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        long[] stubArgs = pool.stubArgs(1);
+        stubArgs[0] = a0;
+        return hookBridge(pool, id, callOrigin, stubArgs);
+    }
+
+    public static long hookBridge(int id, CallOriginCallBack callOrigin, long a0, long a1) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        long[] stubArgs = pool.stubArgs(2);
+        stubArgs[0] = a0;
+        stubArgs[1] = a1;
+        return hookBridge(pool, id, callOrigin, stubArgs);
+    }
+
+    public static long hookBridge(int id, CallOriginCallBack callOrigin, long a0, long a1, long a2) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        long[] stubArgs = pool.stubArgs(3);
+        stubArgs[0] = a0;
+        stubArgs[1] = a1;
+        stubArgs[2] = a2;
+        return hookBridge(pool, id, callOrigin, stubArgs);
+    }
+
+    public static long hookBridge(int id, CallOriginCallBack callOrigin, long a0, long a1, long a2, long a3) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        long[] stubArgs = pool.stubArgs(4);
+        stubArgs[0] = a0;
+        stubArgs[1] = a1;
+        stubArgs[2] = a2;
+        stubArgs[3] = a3;
+        return hookBridge(pool, id, callOrigin, stubArgs);
+    }
+
+    public static long hookBridge(int id, CallOriginCallBack callOrigin, long a0, long a1, long a2, long a3, long a4) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        long[] stubArgs = pool.stubArgs(5);
+        stubArgs[0] = a0;
+        stubArgs[1] = a1;
+        stubArgs[2] = a2;
+        stubArgs[3] = a3;
+        stubArgs[4] = a4;
+        return hookBridge(pool, id, callOrigin, stubArgs);
+    }
+
+    public static long hookBridge(int id, CallOriginCallBack callOrigin, long a0, long a1, long a2, long a3, long a4, long a5) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        long[] stubArgs = pool.stubArgs(6);
+        stubArgs[0] = a0;
+        stubArgs[1] = a1;
+        stubArgs[2] = a2;
+        stubArgs[3] = a3;
+        stubArgs[4] = a4;
+        stubArgs[5] = a5;
+        return hookBridge(pool, id, callOrigin, stubArgs);
+    }
+
+    public static long hookBridge(int id, CallOriginCallBack callOrigin, long a0, long a1, long a2, long a3, long a4, long a5, long a6) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        long[] stubArgs = pool.stubArgs(7);
+        stubArgs[0] = a0;
+        stubArgs[1] = a1;
+        stubArgs[2] = a2;
+        stubArgs[3] = a3;
+        stubArgs[4] = a4;
+        stubArgs[5] = a5;
+        stubArgs[6] = a6;
+        return hookBridge(pool, id, callOrigin, stubArgs);
+    }
+
+    public static long hookBridge(int id, CallOriginCallBack callOrigin, long a0, long a1, long a2, long a3, long a4, long a5, long a6, long a7) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        long[] stubArgs = pool.stubArgs(8);
+        stubArgs[0] = a0;
+        stubArgs[1] = a1;
+        stubArgs[2] = a2;
+        stubArgs[3] = a3;
+        stubArgs[4] = a4;
+        stubArgs[5] = a5;
+        stubArgs[6] = a6;
+        stubArgs[7] = a7;
+        return hookBridge(pool, id, callOrigin, stubArgs);
+    }
+
+    public static long hookBridge(int id, CallOriginCallBack callOrigin, long a0, long a1, long a2, long a3, long a4, long a5, long a6, long a7, long a8) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        long[] stubArgs = pool.stubArgs(9);
+        stubArgs[0] = a0;
+        stubArgs[1] = a1;
+        stubArgs[2] = a2;
+        stubArgs[3] = a3;
+        stubArgs[4] = a4;
+        stubArgs[5] = a5;
+        stubArgs[6] = a6;
+        stubArgs[7] = a7;
+        stubArgs[8] = a8;
+        return hookBridge(pool, id, callOrigin, stubArgs);
+    }
+
+    public static long hookBridge(int id, CallOriginCallBack callOrigin, long a0, long a1, long a2, long a3, long a4, long a5, long a6, long a7, long a8, long a9) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        long[] stubArgs = pool.stubArgs(10);
+        stubArgs[0] = a0;
+        stubArgs[1] = a1;
+        stubArgs[2] = a2;
+        stubArgs[3] = a3;
+        stubArgs[4] = a4;
+        stubArgs[5] = a5;
+        stubArgs[6] = a6;
+        stubArgs[7] = a7;
+        stubArgs[8] = a8;
+        stubArgs[9] = a9;
+        return hookBridge(pool, id, callOrigin, stubArgs);
+    }
+
+    public static long hookBridge(int id, CallOriginCallBack callOrigin, long a0, long a1, long a2, long a3, long a4, long a5, long a6, long a7, long a8, long a9, long a10) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        long[] stubArgs = pool.stubArgs(11);
+        stubArgs[0] = a0;
+        stubArgs[1] = a1;
+        stubArgs[2] = a2;
+        stubArgs[3] = a3;
+        stubArgs[4] = a4;
+        stubArgs[5] = a5;
+        stubArgs[6] = a6;
+        stubArgs[7] = a7;
+        stubArgs[8] = a8;
+        stubArgs[9] = a9;
+        stubArgs[10] = a10;
+        return hookBridge(pool, id, callOrigin, stubArgs);
+    }
+
+    public static long hookBridge(int id, CallOriginCallBack callOrigin, long a0, long a1, long a2, long a3, long a4, long a5, long a6, long a7, long a8, long a9, long a10, long a11) throws Throwable {
+        HookParamPool pool = HookParamPool.get();
+        long[] stubArgs = pool.stubArgs(12);
+        stubArgs[0] = a0;
+        stubArgs[1] = a1;
+        stubArgs[2] = a2;
+        stubArgs[3] = a3;
+        stubArgs[4] = a4;
+        stubArgs[5] = a5;
+        stubArgs[6] = a6;
+        stubArgs[7] = a7;
+        stubArgs[8] = a8;
+        stubArgs[9] = a9;
+        stubArgs[10] = a10;
+        stubArgs[11] = a11;
+        return hookBridge(pool, id, callOrigin, stubArgs);
+    }
+
     public static long hookBridge(int id, CallOriginCallBack callOrigin, long... stubArgs) throws Throwable {
+        return hookBridge(HookParamPool.get(), id, callOrigin, stubArgs);
+    }
+
+    private static long hookBridge(HookParamPool pool, int id, CallOriginCallBack callOrigin, long[] stubArgs) throws Throwable {
+        HookParamPool.Frame frame = pool.push();
+        try {
+            return hookBridge(frame, id, callOrigin, stubArgs);
+        } finally {
+            pool.pop(frame);
+        }
+    }
+
+    //param & args of frame are reused after return
+    private static long hookBridge(HookParamPool.Frame frame, int id, CallOriginCallBack callOrigin, long[] stubArgs) throws Throwable {
 
         Member originMethod = originMethods[id];
         HookMethodEntity entity = hookMethodEntities[id];
@@ -240,8 +736,8 @@ public class HookStubManager {
         Object[] args = null;
 
         if (hasArgs(stubArgs)) {
-            thiz = entity.getThis(stubArgs[0]);
-            args = entity.getArgs(stubArgs);
+            args = frame.args(entity.parType.length);
+            thiz = entity.decodeArgs(stubArgs, args, frame);
         }
 
         if (XposedBridge.disableHooks) {
@@ -264,7 +760,7 @@ public class HookStubManager {
             }
         }
 
-        XC_MethodHook.MethodHookParam param = new XC_MethodHook.MethodHookParam();
+        XC_MethodHook.MethodHookParam param = frame.param();
 
         param.method = originMethod;
         param.thisObject = thiz;
@@ -2,6 +2,7 @@ package com.swift.sandhook.xposedcompat.methodgen;
 
 import android.os.Trace;
 
+import com.swift.sandhook.HookTiming;
 import com.swift.sandhook.SandHook;
 import com.swift.sandhook.blacklist.HookBlackList;
 import com.swift.sandhook.wrapper.HookWrapper;
@@ -57,32 +58,53 @@ public final class DynamicBridge {
                 }
             }
             Trace.beginSection("SandHook-Xposed");
-            long timeStart = System.currentTimeMillis();
-            HookMethodEntity stub = null;
-            if (XposedCompat.useInternalStub && !HookBlackList.canNotHookByStub(hookMethod) && !HookBlackList.canNotHookByBridge(hookMethod)) {
-                stub = HookStubManager.getHookMethodEntity(hookMethod, additionalHookInfo);
-            }
-            if (stub != null) {
-                SandHook.hook(new HookWrapper.HookEntity(hookMethod, stub.hook, stub.backup, false));
-                entityMap.put(hookMethod, stub);
-            } else {
-                HookMaker hookMaker;
-                if (HookBlackList.canNotHookByBridge(hookMethod)) {
-                    hookMaker = new HookerDexMaker();
+            try {
+                long timeStart = System.currentTimeMillis();
+                HookMethodEntity stub = null;
+                if (XposedCompat.useInternalStub && !HookBlackList.canNotHookByStub(hookMethod) && !HookBlackList.canNotHookByBridge(hookMethod)) {
+                    long prepareStart = HookTiming.begin(HookTiming.PHASE_PREPARE_STUB);
+                    try {
+                        stub = HookStubManager.getHookMethodEntity(hookMethod, additionalHookInfo);
+                    } finally {
+                        HookTiming.end(hookMethod, HookTiming.PHASE_PREPARE_STUB, prepareStart);
+                    }
+                }
+                if (stub != null) {
+                    SandHook.hook(new HookWrapper.HookEntity(hookMethod, stub.hook, stub.backup, false));
+                    entityMap.put(hookMethod, stub);
                 } else {
-                    hookMaker = defaultHookMaker;
+                    HookMaker hookMaker;
+                    if (HookBlackList.canNotHookByBridge(hookMethod)) {
+                        hookMaker = new HookerDexMaker();
+                    } else {
+                        hookMaker = defaultHookMaker;
+                    }
+                    hookMaker.start(hookMethod, additionalHookInfo,
+                            new ProxyClassLoader(DynamicBridge.class.getClassLoader(), hookMethod.getDeclaringClass().getClassLoader()), dexDir == null ? null : dexDir.getAbsolutePath());
+                    hookedInfo.put(hookMethod, hookMaker.getCallBackupMethod());
                 }
-                hookMaker.start(hookMethod, additionalHookInfo,
-                        new ProxyClassLoader(DynamicBridge.class.getClassLoader(), hookMethod.getDeclaringClass().getClassLoader()), dexDir == null ? null : dexDir.getAbsolutePath());
-                hookedInfo.put(hookMethod, hookMaker.getCallBackupMethod());
+                DexLog.d("hook method <" + hookMethod.toString() + "> cost " + (System.currentTimeMillis() - timeStart) + " ms, by " + (stub != null ? "internal stub" : "dex maker"));
+            } finally {
+                Trace.endSection();
             }
-            DexLog.d("hook method <" + hookMethod.toString() + "> cost " + (System.currentTimeMillis() - timeStart) + " ms, by " + (stub != null ? "internal stub" : "dex maker"));
-            Trace.endSection();
         } catch (Throwable e) {
             DexLog.e("error occur when hook method <" + hookMethod.toString() + ">", e);
         }
     }
 
+    //only internal stubs are given back to the pool, dex maker hooks are kept
+    public static synchronized boolean unhookMethod(Member hookMethod) {
+        HookMethodEntity stub = entityMap.get(hookMethod);
+        if (stub == null)
+            return false;
+        if (!SandHook.unhook(hookMethod))
+            return false;
+        entityMap.remove(hookMethod);
+        HookStubManager.releaseHookMethodEntity(stub);
+        DexLog.d("unhook method <" + hookMethod.toString() + ">, internal stub released");
+        return true;
+    }
+
     public static void clearOatFile() {
         String fixedAppDataDir = XposedCompat.getCacheDir().getAbsolutePath();
         File dexOatDir = new File(fixedAppDataDir, "/sandxposed/oat/");
@@ -9,6 +9,7 @@ import com.android.dx.FieldId;
 import com.android.dx.Local;
 import com.android.dx.MethodId;
 import com.android.dx.TypeId;
+import com.swift.sandhook.HookTiming;
 import com.swift.sandhook.SandHook;
 import com.swift.sandhook.SandHookConfig;
 import com.swift.sandhook.wrapper.HookWrapper;
@@ -149,18 +150,23 @@ public class HookerDexMakerNew implements HookMaker {
         String className = getClassName(mMember);
         String dexName = className + ".jar";
 
+        long prepareStart = HookTiming.begin(HookTiming.PHASE_PREPARE_STUB);
         HookWrapper.HookEntity hookEntity = null;
-        //try load cache first
         try {
-            ClassLoader loader = mDexMaker.loadClassDirect(mAppClassLoader, new File(mDexDirPath), dexName);
-            if (loader != null) {
-                hookEntity = loadHookerClass(loader, className);
-            }
-        } catch (Throwable throwable) {}
+            //try load cache first
+            try {
+                ClassLoader loader = mDexMaker.loadClassDirect(mAppClassLoader, new File(mDexDirPath), dexName);
+                if (loader != null) {
+                    hookEntity = loadHookerClass(loader, className);
+                }
+            } catch (Throwable throwable) {}
 
-        //do generate
-        if (hookEntity == null) {
-            hookEntity = doMake(className, dexName);
+            //do generate
+            if (hookEntity == null) {
+                hookEntity = doMake(className, dexName);
+            }
+        } finally {
+            HookTiming.end(mMember, HookTiming.PHASE_PREPARE_STUB, prepareStart);
         }
         SandHook.hook(hookEntity);
     }
@@ -70,6 +70,11 @@ public abstract class XC_MethodHook extends XCallback {
 
 	/**
 	 * Wraps information about the method call and allows to influence it.
+	 *
+	 * <p>The param object and its {@link #args} array may be pooled and reused for later calls
+	 * of the same thread. They are only valid until the hooked method returns, so callbacks must
+	 * not keep references to them or use them from other threads after the callback returns.
+	 * Copy what is needed, e.g. {@code args.clone()}, instead.
 	 */
 	public static final class MethodHookParam extends XCallback.Param {
 		/** @hide */
@@ -134,6 +139,17 @@ public abstract class XC_MethodHook extends XCallback {
 				throw throwable;
 			return result;
 		}
+
+		/** @hide Clears this param for reuse by the next hooked call. */
+		public void reset() {
+			method = null;
+			thisObject = null;
+			args = null;
+			result = null;
+			throwable = null;
+			returnEarly = false;
+			clearExtra();
+		}
 	}
 
 	/**
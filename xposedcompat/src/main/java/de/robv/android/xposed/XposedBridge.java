@@ -53,6 +53,7 @@ public final class XposedBridge {
 	private static final int RUNTIME_DALVIK = 1;
 	private static final int RUNTIME_ART = 2;
 
+	/** Use {@link #setDisableHooks} to stop hooks in trampolines as well. */
 	public static boolean disableHooks = false;
 
 	// This field is set "magically" on MIUI.
@@ -155,8 +156,15 @@ public final class XposedBridge {
 				sHookedMethodCallbacks.put(hookMethod, callbacks);
 				newMethod = true;
 			}
+			//unhookMethod may drop the callbacks of method under the same lock
+			callbacks.add(callback);
+		}
+
+		if (!newMethod) {
+			synchronized (sHookedMethodCallbacks) {
+				SandHook.setHookEnabled(hookMethod, true);
+			}
 		}
-		callbacks.add(callback);
 
 		if (newMethod) {
 			Class<?> declaringClass = hookMethod.getDeclaringClass();
@@ -184,6 +192,17 @@ public final class XposedBridge {
         return callback.new Unhook(hookMethod);
 	}
 
+	/**
+	 * Enables or disables all hooks. Disabled hooks jump to the original code in the native
+	 * trampoline, without going through the hook bridge.
+	 *
+	 * @param disable {@code true} to disable all hooks.
+	 */
+	public static void setDisableHooks(boolean disable) {
+		disableHooks = disable;
+		SandHook.setHooksDisabled(disable);
+	}
+
 	/**
 	 * Removes the callback for a hooked method/constructor.
 	 *
@@ -201,7 +220,17 @@ public final class XposedBridge {
 			if (callbacks == null)
 				return;
 		}
-		callbacks.remove(callback);
+		//no callback left, give back the internal stub or skip the hook bridge
+		synchronized (sHookedMethodCallbacks) {
+			callbacks.remove(callback);
+			if (callbacks.getSnapshot().length == 0) {
+				if (DynamicBridge.unhookMethod(hookMethod)) {
+					sHookedMethodCallbacks.remove(hookMethod);
+				} else {
+					SandHook.setHookEnabled(hookMethod, false);
+				}
+			}
+		}
 	}
 
 	/**
@@ -87,6 +87,11 @@ public abstract class XCallback implements Comparable<XCallback> {
 			getExtra().putSerializable(key, new SerializeWrapper(o));
 		}
 
+		/** @hide */
+		protected synchronized void clearExtra() {
+			extra = null;
+		}
+
 		private static class SerializeWrapper implements Serializable {
 			private static final long serialVersionUID = 1L;
 			private final Object object;
@@ -51,6 +51,7 @@ public final class XposedBridge {
 	private static final int RUNTIME_DALVIK = 1;
 	private static final int RUNTIME_ART = 2;
 
+	/** Use {@link #setDisableHooks} to stop hooks in trampolines as well. */
 	public static boolean disableHooks = false;
 
 	// This field is set "magically" on MIUI.
@@ -156,6 +157,12 @@ public final class XposedBridge {
 		}
 		callbacks.add(callback);
 
+		if (!newMethod) {
+			synchronized (sHookedMethodCallbacks) {
+				SandHook.setHookEnabled(hookMethod, true);
+			}
+		}
+
 		if (newMethod) {
 			Class<?> declaringClass = hookMethod.getDeclaringClass();
 			Class<?>[] parameterTypes;
@@ -178,6 +185,17 @@ public final class XposedBridge {
         return callback.new Unhook(hookMethod);
 	}
 
+	/**
+	 * Enables or disables all hooks. Disabled hooks jump to the original code in the native
+	 * trampoline, without going through the hook bridge.
+	 *
+	 * @param disable {@code true} to disable all hooks.
+	 */
+	public static void setDisableHooks(boolean disable) {
+		disableHooks = disable;
+		SandHook.setHooksDisabled(disable);
+	}
+
 	/**
 	 * Removes the callback for a hooked method/constructor.
 	 *
@@ -196,6 +214,12 @@ public final class XposedBridge {
 				return;
 		}
 		callbacks.remove(callback);
+		//no callback left, skip the hook bridge
+		synchronized (sHookedMethodCallbacks) {
+			if (callbacks.getSnapshot().length == 0) {
+				SandHook.setHookEnabled(hookMethod, false);
+			}
+		}
 	}
 
 	/**